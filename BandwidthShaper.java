@@ -0,0 +1,284 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Limitation du débit des connexions par seaux à jetons : un seau global, un par client
+// (adresse) et un par commande, chacun de rate octets/s avec une réserve d'une seconde.
+// Les octets lus et écrits sur la socket d'une connexion, dans les deux sens, sont prélevés
+// par tranches d'au plus QUANTUM octets avant de passer (ShapedInputStream, ShapedOutputStream) ;
+// les transferts sans copie entre fichier et socket sont découpés de même (transferTo,
+// transferFrom, write) et restent sans copie. Les octets lus ou écrits un à un
+// (en-têtes des requêtes) ne sont pas comptés.
+// Le débit global est réparti entre les tranches en attente par file équitable pondérée
+// (horloge virtuelle auto-cadencée) : chaque tranche reçoit une étiquette de fin
+// début + octets / poids, le début étant la fin de la tranche précédente de la même connexion
+// ou l'horloge virtuelle si elle est plus avancée, et la plus petite étiquette passe en premier.
+// Une petite requête est ainsi servie avant les tranches suivantes d'un gros transfert ;
+// le poids de sa commande (BANDWIDTH_WEIGHTS) accentue cette priorité.
+final class BandwidthShaper {
+    static final int QUANTUM = 64 * 1024;
+
+    private final TokenBucket global; // null : illimité
+    private final long clientRate;    // 0 : illimité
+    private final Map<String, Long> commandRates;
+    private final Map<String, Integer> weights;
+    private final Map<String, TokenBucket> clients = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> commands = new ConcurrentHashMap<>();
+    private final PriorityQueue<Slice> waiting = new PriorityQueue<>();
+    private double virtualTime;
+    private long sequence;
+
+    BandwidthShaper(long globalRate, long clientRate, String commandRates, String weights) {
+        this.global = globalRate > 0 ? new TokenBucket(globalRate) : null;
+        this.clientRate = clientRate;
+        this.commandRates = new HashMap<>();
+        for (Map.Entry<String, String> rate : parse(commandRates).entrySet()) {
+            this.commandRates.put(rate.getKey(), Long.parseLong(rate.getValue()));
+        }
+        this.weights = new HashMap<>();
+        for (Map.Entry<String, String> weight : parse(weights).entrySet()) {
+            this.weights.put(weight.getKey(), Math.max(1, Integer.parseInt(weight.getValue())));
+        }
+    }
+
+    // Vrai si au moins une limite est configurée
+    boolean enabled() {
+        return global != null || clientRate > 0 || commandRates.values().stream().anyMatch(rate -> rate > 0);
+    }
+
+    // Débit d'une connexion du client, limité par commande une fois celle-ci connue (Flow.start)
+    Flow flow(String client) {
+        return new Flow(clientRate > 0 ? clients.computeIfAbsent(client, key -> new TokenBucket(clientRate)) : null);
+    }
+
+    // Liste "COMMANDE:valeur,COMMANDE:valeur"
+    private static Map<String, String> parse(String list) {
+        Map<String, String> values = new HashMap<>();
+        for (String item : list.split(",")) {
+            String[] pair = item.trim().split(":");
+            if (pair.length == 2) {
+                values.put(pair[0].trim().toUpperCase(), pair[1].trim());
+            }
+        }
+        return values;
+    }
+
+    // Attendre que la tranche passe en tête de la file équitable et que le seau global la couvre
+    private void acquireGlobal(Flow flow, int bytes) throws InterruptedIOException {
+        synchronized (this) {
+            double start = Math.max(virtualTime, flow.finish);
+            Slice slice = new Slice(start + (double) bytes / flow.weight, sequence++);
+            flow.finish = slice.finish;
+            waiting.add(slice);
+            try {
+                while (true) {
+                    if (waiting.peek() == slice) {
+                        long wait = global.waitNanos(bytes);
+                        if (wait == 0) {
+                            global.take(bytes);
+                            waiting.poll();
+                            virtualTime = slice.finish;
+                            notifyAll(); // Réveiller la tranche suivante
+                            return;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, wait);
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                waiting.remove(slice);
+                notifyAll();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Transfert interrompu");
+            }
+        }
+    }
+
+    // Débit d'une connexion : seaux de son client et de sa commande, place dans la file globale
+    final class Flow {
+        private final TokenBucket client; // null : illimité
+        private TokenBucket command;
+        private String commandName = "AUTRE";
+        private int weight = 1;
+        private double finish; // Étiquette de la dernière tranche, protégée par le BandwidthShaper
+
+        private Flow(TokenBucket client) {
+            this.client = client;
+        }
+
+        // Commande de la requête en cours : seau de la commande et poids de ses tranches
+        void start(String command) {
+            commandName = command.matches("[A-Z]{1,16}") ? command : "AUTRE"; // Pas d'étiquette arbitraire
+            long rate = commandRates.getOrDefault(commandName, 0L);
+            this.command = rate > 0 ? commands.computeIfAbsent(commandName, key -> new TokenBucket(rate)) : null;
+            this.weight = weights.getOrDefault(commandName, 1);
+        }
+
+        // Attendre le droit de transférer bytes octets (au plus QUANTUM)
+        void acquire(int bytes) throws InterruptedIOException {
+            long start = System.nanoTime();
+            long wait = Math.max(client != null ? client.reserve(bytes) : 0, command != null ? command.reserve(bytes) : 0);
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Transfert interrompu");
+                }
+            }
+            if (global != null) {
+                acquireGlobal(this, bytes);
+            }
+            long waited = System.nanoTime() - start;
+            if (waited > 1000000) { // Attentes de plus d'1 ms : le débit a été limité
+                Metrics.histogram("bandwidth_wait_seconds", "command", commandName).record(waited);
+            }
+        }
+    }
+
+    // Envoyer count octets du fichier à partir de position vers la socket, sans copie, par
+    // tranches d'au plus QUANTUM octets prélevées sur le débit de la connexion (flow null : illimité)
+    static void transferTo(FileChannel file, long position, long count, WritableByteChannel target, Flow flow) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sliceEnd = flow == null ? end : Math.min(end, position + QUANTUM);
+            if (flow != null) {
+                flow.acquire((int) (sliceEnd - position));
+            }
+            while (position < sliceEnd) {
+                position += file.transferTo(position, sliceEnd - position, target);
+            }
+        }
+    }
+
+    // Recevoir au plus count octets de la socket dans le fichier à partir de position, par
+    // tranches limitées de même ; retourne le nombre d'octets reçus (moins en fin de flux)
+    static long transferFrom(ReadableByteChannel source, FileChannel file, long position, long count, Flow flow) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long slice = flow == null ? count - transferred : Math.min(QUANTUM, count - transferred);
+            if (flow != null) {
+                flow.acquire((int) slice);
+            }
+            long received = file.transferFrom(source, position + transferred, slice);
+            if (received == 0) {
+                break; // Fin de flux
+            }
+            transferred += received;
+        }
+        return transferred;
+    }
+
+    // Écrire le reste du tampon sur la socket, par tranches limitées de même
+    static void write(ByteBuffer buffer, WritableByteChannel target, Flow flow) throws IOException {
+        int end = buffer.limit();
+        while (buffer.position() < end) {
+            int slice = flow == null ? end - buffer.position() : Math.min(QUANTUM, end - buffer.position());
+            if (flow != null) {
+                flow.acquire(slice);
+            }
+            buffer.limit(buffer.position() + slice);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            buffer.limit(end);
+        }
+    }
+
+    // Seau à jetons de rate octets/s, d'une réserve d'une seconde (au moins QUANTUM octets)
+    private static final class TokenBucket {
+        private final long rate;
+        private final double capacity;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            this.capacity = Math.max(rate, QUANTUM);
+            this.tokens = capacity;
+        }
+
+        // Prélever bytes jetons, le solde pouvant devenir négatif ; délai (ns) avant de les utiliser
+        synchronized long reserve(int bytes) {
+            refill();
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+
+        // Délai (ns) avant que bytes jetons soient disponibles
+        synchronized long waitNanos(int bytes) {
+            refill();
+            double missing = Math.min(bytes, capacity) - tokens;
+            return missing <= 0 ? 0 : Math.max(1, (long) (missing * 1e9 / rate));
+        }
+
+        synchronized void take(int bytes) {
+            tokens -= bytes;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - last) * (double) rate / 1e9);
+            last = now;
+        }
+    }
+
+    private static final class Slice implements Comparable<Slice> {
+        final double finish;
+        final long sequence; // Ordre d'arrivée des tranches d'étiquettes égales
+
+        Slice(double finish, long sequence) {
+            this.finish = finish;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Slice other) {
+            int order = Double.compare(finish, other.finish);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // Flux de la socket dont les lectures sont limitées par le débit de la connexion
+    static final class ShapedInputStream extends FilterInputStream {
+        private final Flow flow;
+
+        ShapedInputStream(InputStream in, Flow flow) {
+            super(in);
+            this.flow = flow;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, Math.min(len, QUANTUM));
+            if (count > 0) {
+                flow.acquire(count);
+            }
+            return count;
+        }
+    }
+
+    // Flux de la socket dont les écritures sont limitées par le débit de la connexion
+    static final class ShapedOutputStream extends FilterOutputStream {
+        private final Flow flow;
+
+        ShapedOutputStream(OutputStream out, Flow flow) {
+            super(out);
+            this.flow = flow;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, QUANTUM);
+                flow.acquire(count);
+                out.write(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+    }
+}
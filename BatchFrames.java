@@ -0,0 +1,72 @@
+import java.io.*;
+
+// Réponse à une requête d'un lot (BATCH) dont le contenu peut être long (RECEIVE). L'en-tête,
+// écrit sur header(), part d'un bloc à son flush ; le contenu, écrit sur ce flux, part par
+// morceaux d'au plus FRAME_SIZE octets, chacun précédé du numéro de la requête et de sa
+// longueur. Le verrou de la connexion n'est tenu que le temps d'un message : les réponses
+// des autres requêtes du lot s'intercalent entre les morceaux au lieu d'attendre la fin du fichier.
+class BatchFrames extends OutputStream {
+    static final int FRAME_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final int requestId;
+    private final DataOutputStream header;
+    private final byte[] frame = new byte[FRAME_SIZE];
+    private int count;
+
+    BatchFrames(DataOutputStream out, int requestId) {
+        this.out = out;
+        this.requestId = requestId;
+        this.header = new DataOutputStream(new ByteArrayOutputStream() {
+            @Override
+            public void flush() throws IOException {
+                if (size() > 0) {
+                    Server.respond(out, requestId, this::writeTo);
+                    reset();
+                }
+            }
+        });
+    }
+
+    DataOutputStream header() {
+        return header;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == frame.length) {
+            sendFrame();
+        }
+        frame[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == frame.length) {
+                sendFrame();
+            }
+            int n = Math.min(len, frame.length - count);
+            System.arraycopy(b, off, frame, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            sendFrame();
+        }
+    }
+
+    private void sendFrame() throws IOException {
+        int length = count;
+        Server.respond(out, requestId, response -> {
+            response.writeInt(length);
+            response.write(frame, 0, length);
+        });
+        count = 0;
+    }
+}
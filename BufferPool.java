@@ -0,0 +1,114 @@
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Tampons réutilisables du processus, par classes de tailles en puissances de deux (4 Ko à 1 Go) :
+// acquire rend un tableau d'au moins la taille demandée, dont le contenu est quelconque,
+// release le remet à disposition. Les tableaux inactifs sont conservés dans la limite de
+// BUFFER_POOL_SIZE octets au total ; au-delà ils sont laissés au ramasse-miettes.
+// L'ensemble des tableaux du pool, prêtés ou inactifs, est borné par BUFFER_POOL_BUDGET :
+// au-delà, acquire n'attend pas (un transfert qui attendrait en gardant ses propres tampons
+// pourrait bloquer les autres) mais rend un tableau ordinaire, hors du pool, que release ignore.
+// Les tampons restent sur le tas : codage de parité, sommes de contrôle, codecs et flux
+// travaillent sur des byte[] (les données conservées longtemps sont dans ReadCache, hors du tas).
+// Un tableau rendu ne doit plus être utilisé par celui qui l'a rendu ; un tableau perdu
+// sur une erreur reste compté dans le budget : les transferts rendent les leurs en cas d'échec.
+final class BufferPool {
+    private static final int MIN_SIZE_BITS = 12; // 4 Ko
+    private static final int MAX_SIZE_BITS = 30; // 1 Go
+    private static final ConcurrentLinkedDeque<byte[]>[] free = newClasses();
+    private static final AtomicLong idleBytes = new AtomicLong();
+    private static final AtomicLong lentBytes = new AtomicLong();
+    private static final LongAdder hits = Metrics.counter("buffer_pool_hits_total");
+    private static final LongAdder misses = Metrics.counter("buffer_pool_misses_total");
+    private static final LongAdder overBudget = Metrics.counter("buffer_pool_over_budget_total");
+    private static volatile long capacity = 64L * 1024 * 1024;
+    private static volatile long budget = 512L * 1024 * 1024;
+
+    static {
+        Metrics.gauge("buffer_pool_idle_bytes", idleBytes::get);
+        Metrics.gauge("buffer_pool_lent_bytes", lentBytes::get);
+    }
+
+    private BufferPool() {
+    }
+
+    // Taille maximale des tableaux inactifs conservés (0 : aucun) et de l'ensemble des tableaux
+    // du pool, prêtés ou inactifs (0 : aucun tableau réutilisé)
+    static void configure(long capacityBytes, long budgetBytes) {
+        budget = Math.max(0, budgetBytes);
+        capacity = Math.min(Math.max(0, capacityBytes), budget);
+        byte[] buffer;
+        for (ConcurrentLinkedDeque<byte[]> buffers : free) {
+            while (idleBytes.get() > capacity && (buffer = buffers.pollLast()) != null) {
+                idleBytes.addAndGet(-buffer.length);
+            }
+        }
+    }
+
+    // Tableau d'au moins size octets, réutilisé si possible
+    static byte[] acquire(int size) {
+        int bits = sizeBits(size);
+        if (bits > MAX_SIZE_BITS) {
+            return new byte[size];
+        }
+        byte[] buffer = free[bits - MIN_SIZE_BITS].pollFirst();
+        if (buffer != null) {
+            // Compté comme prêté avant de ne plus l'être comme inactif : jamais sous-estimé
+            lentBytes.addAndGet(buffer.length);
+            idleBytes.addAndGet(-buffer.length);
+            hits.increment();
+            return buffer;
+        }
+        misses.increment();
+        if (!reserve(1 << bits)) {
+            // Budget épuisé : tableau hors du pool, de taille autre qu'une puissance de deux
+            overBudget.increment();
+            return new byte[Integer.bitCount(size) == 1 ? size + 1 : size];
+        }
+        return new byte[1 << bits];
+    }
+
+    // Compter length octets de plus comme prêtés, si le budget le permet
+    private static boolean reserve(int length) {
+        long lent;
+        do {
+            lent = lentBytes.get();
+            if (lent + idleBytes.get() + length > budget) {
+                return false;
+            }
+        } while (!lentBytes.compareAndSet(lent, lent + length));
+        return true;
+    }
+
+    // Remettre à disposition un tableau obtenu par acquire
+    static void release(byte[] buffer) {
+        if (buffer == null || Integer.bitCount(buffer.length) != 1 || buffer.length < 1 << MIN_SIZE_BITS) {
+            return; // Pas un tableau du pool
+        }
+        int bits = Integer.numberOfTrailingZeros(buffer.length);
+        if (bits > MAX_SIZE_BITS) {
+            return;
+        }
+        lentBytes.addAndGet(-buffer.length);
+        if (idleBytes.addAndGet(buffer.length) > capacity) {
+            idleBytes.addAndGet(-buffer.length);
+            return;
+        }
+        // Dernier rendu, premier repris : un tableau récemment utilisé est encore en cache
+        free[bits - MIN_SIZE_BITS].offerFirst(buffer);
+    }
+
+    private static int sizeBits(int size) {
+        return size <= 1 << MIN_SIZE_BITS ? MIN_SIZE_BITS : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ConcurrentLinkedDeque<byte[]>[] newClasses() {
+        ConcurrentLinkedDeque<byte[]>[] classes = new ConcurrentLinkedDeque[MAX_SIZE_BITS - MIN_SIZE_BITS + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ConcurrentLinkedDeque<>();
+        }
+        return classes;
+    }
+}
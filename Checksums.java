@@ -0,0 +1,60 @@
+// Combinaison de sommes de contrôle CRC32C : crc(A + B) à partir de crc(A), crc(B) et de la
+// longueur de B, sans relire A. Utilisé pour prolonger la somme d'un envoi repris en cours
+// de route (même méthode que crc32_combine de zlib, avec le polynôme de CRC32C).
+final class Checksums {
+    private static final long POLYNOMIAL = 0x82F63B78L; // CRC32C, forme réfléchie
+
+    private Checksums() {
+    }
+
+    static long combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        // Opérateur « ajouter un octet nul » sous forme de matrice sur GF(2), élevé
+        // au carré pour traiter la longueur bit par bit
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd); // 2 bits nuls
+        square(odd, even); // 4 bits nuls
+
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return (crc1 ^ crc2) & 0xFFFFFFFFL;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] result, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            result[n] = times(matrix, matrix[n]);
+        }
+    }
+}
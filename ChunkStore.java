@@ -0,0 +1,206 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Stockage par contenu des morceaux de fichiers d'un sous-serveur.
+// Chaque morceau est enregistré une seule fois sous son empreinte SHA-256
+// (chunks/<2 premiers caractères>/<empreinte>) ; une partie stockée en mode
+// déduplication est décrite par un manifeste <partie>.chunks listant ses morceaux.
+// Le nombre de manifestes référençant chaque morceau est tenu en mémoire, reconstruit
+// au démarrage, et un morceau n'est supprimé que lorsqu'il n'est plus référencé.
+// Avec un codec de stockage, un morceau qui se compresse est enregistré sous la forme
+// [identifiant du codec][données compressées], plus courte que le morceau : un fichier
+// de la longueur du morceau est un morceau non compressé.
+// Les tampons de compression et de décompression sont pris dans BufferPool.
+class ChunkStore {
+    static final String MANIFEST_SUFFIX = ".chunks";
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final File storageDir;
+    private final File chunkDir;
+    private final Map<String, Integer> references = new HashMap<>();
+    private final ThreadLocal<Codec> codec; // null : morceaux enregistrés tels quels
+
+    // Morceau référencé par un manifeste
+    static final class ChunkRef {
+        final byte[] hash;
+        final int length;
+
+        ChunkRef(byte[] hash, int length) {
+            this.hash = hash;
+            this.length = length;
+        }
+    }
+
+    ChunkStore(File storageDir, String codecName) throws IOException {
+        this.storageDir = storageDir;
+        this.codec = Codec.forName(codecName) == null ? null : ThreadLocal.withInitial(() -> Codec.forName(codecName));
+        this.chunkDir = new File(storageDir, "chunks");
+        chunkDir.mkdirs();
+        rebuildReferences();
+    }
+
+    boolean contains(byte[] hash) {
+        return chunkFile(hash).exists();
+    }
+
+    // Enregistrer un morceau (les length premiers octets de data) après avoir vérifié
+    // que son contenu correspond à l'empreinte
+    boolean put(byte[] hash, byte[] data, int length) throws IOException {
+        if (!Arrays.equals(hash, ContentChunker.hash(data, length))) {
+            return false;
+        }
+        File file = chunkFile(hash);
+        if (file.exists()) {
+            return true;
+        }
+        file.getParentFile().mkdirs();
+        File tempFile = File.createTempFile("chunk", ".tmp", file.getParentFile());
+        byte[] compressed = codec == null ? null : BufferPool.acquire(length);
+        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+            int compressedLength = compressed == null ? -1 : codec.get().compress(data, length, compressed, 1);
+            if (compressedLength < 0) {
+                fos.write(data, 0, length);
+            } else {
+                compressed[0] = codec.get().id();
+                fos.write(compressed, 0, 1 + compressedLength);
+            }
+        } finally {
+            BufferPool.release(compressed);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    // Enregistrer le manifeste d'une partie ; échoue si un morceau est absent
+    synchronized boolean commit(String partName, List<ChunkRef> chunks) throws IOException {
+        for (ChunkRef chunk : chunks) {
+            if (!contains(chunk.hash)) {
+                return false;
+            }
+        }
+        File manifest = manifestFile(partName);
+        File tempFile = new File(manifest.getPath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            dos.writeInt(chunks.size());
+            for (ChunkRef chunk : chunks) {
+                dos.write(chunk.hash);
+                dos.writeInt(chunk.length);
+            }
+        }
+        // Remplacer une éventuelle version précédente de la partie
+        delete(partName);
+        Files.move(tempFile.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        for (ChunkRef chunk : chunks) {
+            references.merge(ContentChunker.toHex(chunk.hash), 1, Integer::sum);
+        }
+        return true;
+    }
+
+    // Morceaux de la partie, dans l'ordre, ou null si elle n'est pas stockée par morceaux
+    List<ChunkRef> read(String partName) throws IOException {
+        File manifest = manifestFile(partName);
+        if (!manifest.exists()) {
+            return null;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)))) {
+            int count = dis.readInt();
+            List<ChunkRef> chunks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] hash = new byte[ContentChunker.HASH_LENGTH];
+                dis.readFully(hash);
+                chunks.add(new ChunkRef(hash, dis.readInt()));
+            }
+            return chunks;
+        }
+    }
+
+    // Supprimer le manifeste de la partie et les morceaux qui ne sont plus référencés
+    synchronized boolean delete(String partName) throws IOException {
+        List<ChunkRef> chunks = read(partName);
+        if (chunks == null) {
+            return false;
+        }
+        manifestFile(partName).delete();
+        for (ChunkRef chunk : chunks) {
+            String key = ContentChunker.toHex(chunk.hash);
+            Integer count = references.merge(key, -1, Integer::sum);
+            if (count != null && count <= 0) {
+                references.remove(key);
+                chunkFile(chunk.hash).delete();
+            }
+        }
+        return true;
+    }
+
+    // Envoyer les octets [from, to) du morceau, décompressé si nécessaire
+    void transferTo(ChunkRef chunk, long from, long to, WritableByteChannel target, BandwidthShaper.Flow flow) throws IOException {
+        File file = chunkFile(chunk.hash);
+        if (file.length() == chunk.length) {
+            // Morceau non compressé : envoi sans copie
+            try (FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+                BandwidthShaper.transferTo(fileChannel, from, to - from, target, flow);
+            }
+            return;
+        }
+        byte[] stored = null;
+        byte[] data = null;
+        try (FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+            int storedLength = (int) fileChannel.size();
+            stored = BufferPool.acquire(storedLength);
+            ByteBuffer input = ByteBuffer.wrap(stored, 0, storedLength);
+            while (input.hasRemaining()) {
+                if (fileChannel.read(input, input.position()) < 0) {
+                    throw new EOFException("Morceau tronqué : " + file);
+                }
+            }
+            data = BufferPool.acquire(chunk.length);
+            Codec.forId(stored[0]).decompress(stored, 1, storedLength - 1, data, chunk.length);
+            BandwidthShaper.write(ByteBuffer.wrap(data, (int) from, (int) (to - from)), target, flow);
+        } finally {
+            BufferPool.release(stored);
+            BufferPool.release(data);
+        }
+    }
+
+    File chunkFile(byte[] hash) {
+        String hex = ContentChunker.toHex(hash);
+        return new File(new File(chunkDir, hex.substring(0, 2)), hex);
+    }
+
+    private File manifestFile(String partName) {
+        return new File(storageDir, partName + MANIFEST_SUFFIX);
+    }
+
+    // Recompter les références à partir des manifestes et supprimer les morceaux orphelins
+    // (envoyés lors d'un transfert interrompu avant l'enregistrement du manifeste)
+    private void rebuildReferences() throws IOException {
+        File[] manifests = storageDir.listFiles((dir, name) -> name.endsWith(MANIFEST_SUFFIX));
+        if (manifests != null) {
+            for (File manifest : manifests) {
+                String partName = manifest.getName().substring(0, manifest.getName().length() - MANIFEST_SUFFIX.length());
+                for (ChunkRef chunk : read(partName)) {
+                    references.merge(ContentChunker.toHex(chunk.hash), 1, Integer::sum);
+                }
+            }
+        }
+        int orphans = 0;
+        File[] prefixes = chunkDir.listFiles();
+        if (prefixes != null) {
+            for (File prefix : prefixes) {
+                File[] files = prefix.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    if (!references.containsKey(file.getName()) && file.delete()) {
+                        orphans++;
+                    }
+                }
+            }
+        }
+        Log.info("Stockage par morceaux : " + references.size() + " morceaux référencés, " + orphans + " orphelins supprimés");
+    }
+}
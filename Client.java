@@ -1,10 +1,21 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class Client {
     private static String SERVER_ADDRESS;
     private static int SERVER_PORT;
     private static String DOWNLOAD_DIR;
+    private static final int LIST_PAGE_SIZE = 1000; // Fichiers par page de LIST
+    private static String COMPRESSION = Codec.NONE;                 // Codecs proposés au serveur, par ordre de préférence
+    private static int TRANSFER_STREAMS = 4;                        // Connexions par transfert d'un gros fichier
+    private static long TRANSFER_SEGMENT_SIZE = 64L * 1024 * 1024;  // Octets par segment transféré en parallèle
+    private static final LatencyHistogram SEGMENT_SECONDS = new LatencyHistogram(); // Durée des segments transférés
 
     public static void main(String[] args) {
         // Lire le fichier de configuration
@@ -14,36 +25,48 @@ public class Client {
         if (args.length < 1) {
             System.out.println("Usage: java Client <command> [options]");
             System.out.println("Commands:");
-            System.out.println("  LIST                        Lister les fichiers disponibles");
-            System.out.println("  SEND <file>                 Envoyer un fichier au serveur");
-            System.out.println("  RECEIVE <file>              Récupérer un fichier du serveur");
+            System.out.println("  LIST [prefixe] [taille]     Lister les fichiers disponibles (par pages)");
+            System.out.println("  SEND <file>                 Envoyer un fichier au serveur (reprise d'un envoi interrompu)");
+            System.out.println("  RECEIVE <file> [début [longueur]]");
+            System.out.println("                              Récupérer un fichier du serveur (ou une plage d'octets)");
             System.out.println("  DELETE <file>               Supprimer un fichier");
+            System.out.println("  BATCH <dossier|manifeste>   Envoyer tous les fichiers d'un dossier, ou exécuter un manifeste");
+            System.out.println("                              (une opération SEND, RECEIVE ou DELETE par ligne), sur une seule connexion");
+            System.out.println("  STATS                       Afficher les compteurs du serveur (cache de lecture...)");
             return;
         }
 
         String command = args[0].toUpperCase();
 
-        try (Socket socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+        try (Connection connection = new Connection()) {
+            ByteChannel channel = connection.channel;
+            DataOutputStream dos = connection.dos;
+            DataInputStream dis = connection.dis;
 
             switch (command) {
                 case "LIST":
-                    handleListCommand(dos, dis);
+                    String prefix = args.length > 1 ? args[1] : "";
+                    int pageSize = args.length > 2 ? Integer.parseInt(args[2]) : LIST_PAGE_SIZE;
+                    handleListCommand(dos, dis, prefix, pageSize);
                     break;
                 case "SEND":
                     if (args.length < 2) {
                         System.out.println("Usage: java Client SEND <file>");
                         return;
                     }
-                    handleSendCommand(dos, args[1]);
+                    handleSendCommand(channel, dos, dis, args[1]);
                     break;
                 case "RECEIVE":
                     if (args.length < 2) {
-                        System.out.println("Usage: java Client RECEIVE <file>");
+                        System.out.println("Usage: java Client RECEIVE <file> [début [longueur]]");
                         return;
                     }
-                    handleReceiveCommand(dos, dis, args[1]);
+                    if (args.length > 2) {
+                        long length = args.length > 3 ? Long.parseLong(args[3]) : -1;
+                        handleReceiveRange(channel, dos, dis, args[1], Long.parseLong(args[2]), length);
+                    } else {
+                        handleReceiveCommand(channel, dos, dis, args[1]);
+                    }
                     break;
                 case "DELETE":
                     if (args.length < 2) {
@@ -52,6 +75,16 @@ public class Client {
                     }
                     deleteFile(dos, dis, args[1]);
                     break;
+                case "BATCH":
+                    if (args.length < 2) {
+                        System.out.println("Usage: java Client BATCH <dossier|manifeste>");
+                        return;
+                    }
+                    handleBatchCommand(channel, dos, dis, args[1]);
+                    break;
+                case "STATS":
+                    handleStatsCommand(dos, dis);
+                    break;
                 default:
                     System.out.println("Commande non reconnue : " + command);
                     break;
@@ -61,6 +94,47 @@ public class Client {
         }
     }
 
+    // Connexion au serveur principal. Si un codec est négocié (COMPRESSION), dis et dos compressent
+    // par blocs et channel passe par eux au lieu d'accéder directement à la socket.
+    private static final class Connection implements Closeable {
+        final SocketChannel socketChannel;
+        final ByteChannel channel;
+        final DataOutputStream dos;
+        final DataInputStream dis;
+
+        Connection() throws IOException {
+            socketChannel = SocketChannel.open(new InetSocketAddress(SERVER_ADDRESS, SERVER_PORT));
+            try {
+                Socket socket = socketChannel.socket();
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                String codec = Codec.NONE;
+                if (!COMPRESSION.equals(Codec.NONE)) {
+                    out.writeUTF("CODEC");
+                    out.writeUTF(COMPRESSION);
+                    codec = in.readUTF();
+                }
+                if (codec.equals(Codec.NONE)) {
+                    channel = socketChannel;
+                    dos = out;
+                    dis = in;
+                } else {
+                    dos = new DataOutputStream(new CodecOutputStream(out, Codec.forName(codec)));
+                    dis = new DataInputStream(new CodecInputStream(in));
+                    channel = Codec.channel(dis, dos);
+                }
+            } catch (IOException e) {
+                socketChannel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socketChannel.close();
+        }
+    }
+
     private static void loadConfig() {
         try (BufferedReader reader = new BufferedReader(new FileReader("config.txt"))) {
             String line;
@@ -69,6 +143,12 @@ public class Client {
                     SERVER_PORT = Integer.parseInt(line.split("=")[1].trim());
                 } else if (line.startsWith("SERVER_ADDRESS")) {
                     SERVER_ADDRESS = line.split("=")[1].trim();
+                } else if (line.startsWith("COMPRESSION")) {
+                    COMPRESSION = line.split("=")[1].trim();
+                } else if (line.startsWith("TRANSFER_STREAMS")) {
+                    TRANSFER_STREAMS = Math.max(1, Integer.parseInt(line.split("=")[1].trim()));
+                } else if (line.startsWith("TRANSFER_SEGMENT_SIZE")) {
+                    TRANSFER_SEGMENT_SIZE = Math.max(1, Long.parseLong(line.split("=")[1].trim()));
                 } else if (line.startsWith("DOWNLOAD_DIR")) {
                     DOWNLOAD_DIR = line.split("=")[1].trim();
                     // Créer le répertoire s'il n'existe pas
@@ -87,20 +167,46 @@ public class Client {
         }
     }
 
-    private static void handleListCommand(DataOutputStream dos, DataInputStream dis) throws IOException {
+    private static void handleListCommand(DataOutputStream dos, DataInputStream dis, String prefix, int pageSize) throws IOException {
+        System.out.println("Fichiers disponibles sur le serveur :");
+        // Les pages sont demandées une à une : seule la page en cours est en mémoire
+        String cursor = listPage(dos, dis, prefix, pageSize, "");
+        while (!cursor.isEmpty()) {
+            try (Connection connection = new Connection()) {
+                cursor = listPage(connection.dos, connection.dis, prefix, pageSize, cursor);
+            }
+        }
+    }
+
+    // Afficher une page de la liste et retourner le curseur de la suivante (vide à la fin)
+    private static String listPage(DataOutputStream dos, DataInputStream dis, String prefix, int pageSize, String cursor) throws IOException {
         // Envoyer la commande LIST
         dos.writeUTF("LIST");
+        dos.writeUTF(prefix);
+        dos.writeInt(pageSize);
+        dos.writeUTF(cursor);
+        dos.flush();
 
-        // Recevoir la liste des fichiers
-        int fileCount = dis.readInt();
-        System.out.println("Fichiers disponibles sur le serveur :");
-        for (int i = 0; i < fileCount; i++) {
+        // Afficher les fichiers au fur et à mesure de leur réception
+        while (dis.readBoolean()) {
             String fileName = dis.readUTF();
-            System.out.println("- " + fileName);
+            long fileSize = dis.readLong();
+            System.out.println("- " + fileName + " (" + fileSize + " octets)");
         }
+        return dis.readUTF();
     }
 
-    private static void handleSendCommand(DataOutputStream dos, String filePath) throws IOException {
+    private static void handleStatsCommand(DataOutputStream dos, DataInputStream dis) throws IOException {
+        dos.writeUTF("STATS");
+        dos.flush();
+        System.out.println("Compteurs du serveur :");
+        while (dis.readBoolean()) {
+            String name = dis.readUTF();
+            System.out.println("- " + name + " = " + dis.readLong());
+        }
+    }
+
+    private static void handleSendCommand(ByteChannel channel, DataOutputStream dos, DataInputStream dis, String filePath) throws IOException {
         File fileToSend = new File(filePath);
         if (!fileToSend.exists() || !fileToSend.isFile()) {
             System.out.println("Le fichier " + filePath + " n'existe pas ou n'est pas un fichier valide.");
@@ -116,52 +222,575 @@ public class Client {
         // Envoyer la taille du fichier
         dos.writeLong(fileToSend.length());
 
-        // Envoyer le contenu du fichier
-        try (FileInputStream fis = new FileInputStream(fileToSend)) {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                dos.write(buffer, 0, bytesRead);
+        // Identifiant de reprise : le même tant que le fichier n'a pas été modifié
+        String session = fileToSend.getAbsolutePath() + ":" + fileToSend.length() + ":" + fileToSend.lastModified();
+        String sessionId = UUID.nameUUIDFromBytes(session.getBytes(StandardCharsets.UTF_8)).toString();
+        dos.writeUTF(sessionId);
+
+        // Un gros fichier est envoyé par segments sur plusieurs connexions
+        long fileSize = fileToSend.length();
+        int streams = fileSize > TRANSFER_SEGMENT_SIZE ? TRANSFER_STREAMS : 1;
+        dos.writeInt(streams);
+        dos.flush();
+
+        // Le serveur indique combien d'octets il a déjà validés lors d'une tentative précédente,
+        // et sur quelle longueur aligner les segments (0 : tout envoyer sur cette connexion)
+        long committed = dis.readLong();
+        long alignment = dis.readLong();
+        if (committed < 0) {
+            System.out.println("Le fichier " + fileToSend.getName() + " est déjà en cours d'envoi.");
+            return;
+        }
+        if (committed > 0) {
+            System.out.println("Reprise de l'envoi à l'octet " + committed);
+        }
+        long start = System.nanoTime();
+
+        if (streams > 1 && alignment > 0) {
+            // Signaler au serveur la fin des envois de segments, réussis ou non
+            dos.writeBoolean(sendSegments(fileToSend, sessionId, committed, alignment));
+            dos.flush();
+        } else {
+            // Envoyer le contenu du fichier sans le recopier dans le tas (sendfile)
+            try (FileChannel fileChannel = new FileInputStream(fileToSend).getChannel()) {
+                long position = committed;
+                while (position < fileSize) {
+                    position += fileChannel.transferTo(position, fileSize - position, channel);
+                }
             }
+            dos.flush();
         }
 
-        System.out.println("Fichier envoyé au serveur : " + fileToSend.getName());
+        // Attendre la confirmation du stockage sur les sous-serveurs
+        if (dis.readBoolean()) {
+            System.out.println("Fichier envoyé au serveur : " + fileToSend.getName());
+            printTransferSummary("Envoyé", fileSize - committed, start);
+        } else {
+            System.out.println("Le serveur n'a pas pu enregistrer le fichier : " + fileToSend.getName());
+        }
     }
 
-    private static void handleReceiveCommand(DataOutputStream dos, DataInputStream dis, String fileName) throws IOException {
+    // Envoyer le fichier à partir de l'octet start par segments alignés sur alignment,
+    // chacun sur sa propre connexion (commande SEGMENT), TRANSFER_STREAMS à la fois
+    private static boolean sendSegments(File file, String sessionId, long start, long alignment) {
+        long fileSize = file.length();
+        long segmentSize = Math.max(alignment, TRANSFER_SEGMENT_SIZE / alignment * alignment);
+        List<Callable<Boolean>> segments = new ArrayList<>();
+        for (long offset = start; offset < fileSize; offset += segmentSize) {
+            long position = offset;
+            long length = Math.min(segmentSize, fileSize - offset);
+            segments.add(() -> sendSegment(file, sessionId, position, length));
+        }
+        return runSegments(segments);
+    }
+
+    private static boolean sendSegment(File file, String sessionId, long offset, long length) throws IOException {
+        try (Connection connection = new Connection();
+             FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+            DataOutputStream dos = connection.dos;
+            dos.writeUTF("SEGMENT");
+            dos.writeUTF(sessionId);
+            dos.writeLong(offset);
+            dos.writeLong(length);
+            dos.flush();
+
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                position += fileChannel.transferTo(position, end - position, connection.channel);
+            }
+            dos.flush();
+            return connection.dis.readBoolean();
+        }
+    }
+
+    // Exécuter les transferts de segments, TRANSFER_STREAMS à la fois ; faux si l'un d'eux a échoué
+    private static boolean runSegments(List<Callable<Boolean>> segments) {
+        ExecutorService pool = Executors.newFixedThreadPool(TRANSFER_STREAMS);
+        List<Callable<Boolean>> timedSegments = new ArrayList<>();
+        for (Callable<Boolean> segment : segments) {
+            timedSegments.add(() -> {
+                long start = System.nanoTime();
+                try {
+                    return segment.call();
+                } finally {
+                    SEGMENT_SECONDS.record(System.nanoTime() - start);
+                }
+            });
+        }
+        try {
+            boolean allTransferred = true;
+            for (Future<Boolean> segment : pool.invokeAll(timedSegments)) {
+                try {
+                    allTransferred &= segment.get();
+                } catch (ExecutionException e) {
+                    System.err.println("Erreur lors du transfert d'un segment : " + e.getCause().getMessage());
+                    allTransferred = false;
+                }
+            }
+            return allTransferred;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Récupérer le fichier en entier ; un téléchargement interrompu (fichier .part) reprend là où il s'était arrêté.
+    // Au-delà du premier segment, un gros fichier est récupéré par segments sur plusieurs connexions ;
+    // le fichier .part.done indique alors jusqu'où le fichier .part est complet.
+    // Le fichier .part.version garde la version des octets reçus : si le fichier a été remplacé
+    // sur le serveur entre-temps, le téléchargement repart du début au lieu de mêler deux versions.
+    private static void handleReceiveCommand(ByteChannel channel, DataOutputStream dos, DataInputStream dis, String fileName) throws IOException {
+        File partialFile = new File(DOWNLOAD_DIR + "/" + fileName + ".part");
+        File progressFile = new File(DOWNLOAD_DIR + "/" + fileName + ".part.done");
+        File versionFile = new File(DOWNLOAD_DIR + "/" + fileName + ".part.version");
+        long offset = partialFile.length();
+        if (progressFile.exists()) {
+            offset = Math.min(offset, Long.parseLong(Files.readString(progressFile.toPath()).trim()));
+        }
+        Long version = readVersion(versionFile);
+        if (version == null) {
+            offset = 0; // Version des octets reçus inconnue : ne pas les compléter
+        }
+        truncate(partialFile, offset);
+        if (offset > 0) {
+            System.out.println("Reprise du téléchargement à l'octet " + offset);
+        }
+        long length = TRANSFER_STREAMS > 1 ? TRANSFER_SEGMENT_SIZE : -1;
+        long start = System.nanoTime();
+        FileInfo info;
+        try {
+            info = receive(channel, dos, dis, fileName, offset, length, partialFile, offset > 0 ? version : null, versionFile);
+        } catch (FileChangedException e) {
+            System.out.println(e.getMessage() + " depuis le début du téléchargement, reprise à l'octet 0");
+            channel.close();
+            offset = 0;
+            truncate(partialFile, 0);
+            progressFile.delete();
+            try (Connection connection = new Connection()) {
+                info = receive(connection.channel, connection.dos, connection.dis, fileName, 0, length, partialFile, null, versionFile);
+            }
+        }
+        if (info == null) {
+            return;
+        }
+        long fileSize = info.size;
+        long received = length < 0 ? fileSize : Math.min(fileSize, offset + length);
+        if (received < fileSize && !receiveSegments(fileName, received, info, partialFile, progressFile)) {
+            System.out.println("Téléchargement incomplet, relancer RECEIVE pour le reprendre.");
+            return;
+        }
+        File outputFile = new File(DOWNLOAD_DIR + "/" + fileName);
+        Files.move(partialFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(versionFile.toPath(), new File(DOWNLOAD_DIR + "/" + fileName + ".version").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        progressFile.delete();
+        System.out.println("Fichier reçu : " + outputFile.getAbsolutePath());
+        printTransferSummary("Reçu", fileSize - offset, start);
+    }
+
+    // Version enregistrée dans ce fichier, ou null s'il n'existe pas
+    private static Long readVersion(File versionFile) throws IOException {
+        return versionFile.exists() ? Long.valueOf(Files.readString(versionFile.toPath()).trim()) : null;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        if (file.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length);
+            }
+        }
+    }
+
+    // Débit du transfert de bytes octets commencé à start et, s'il a été fait par segments,
+    // répartition de leurs durées
+    private static void printTransferSummary(String action, long bytes, long start) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        System.out.println(String.format(Locale.ROOT, "%s : %d octets en %.3f s (%.1f Mo/s)",
+                action, bytes, seconds, bytes / seconds / (1024 * 1024)));
+        if (SEGMENT_SECONDS.count() > 0) {
+            System.out.println(String.format(Locale.ROOT, "Segments : %d, durée p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                    SEGMENT_SECONDS.count(), SEGMENT_SECONDS.percentile(0.5) / 1e3,
+                    SEGMENT_SECONDS.percentile(0.99) / 1e3, SEGMENT_SECONDS.max() / 1e3));
+        }
+    }
+
+    // Récupérer [start, fileSize) par segments, chacun sur sa propre connexion et écrit à sa
+    // position ; un segment d'une autre version que info.version échoue
+    private static boolean receiveSegments(String fileName, long start, FileInfo info, File partialFile, File progressFile) throws IOException {
+        long fileSize = info.size;
+        Files.writeString(progressFile.toPath(), Long.toString(start));
+        try (RandomAccessFile file = new RandomAccessFile(partialFile, "rw")) {
+            file.setLength(fileSize); // Chaque segment écrit dans sa plage
+        }
+        NavigableMap<Long, Long> done = new TreeMap<>();
+        long[] prefix = {start};
+        List<Callable<Boolean>> segments = new ArrayList<>();
+        for (long offset = start; offset < fileSize; offset += TRANSFER_SEGMENT_SIZE) {
+            long position = offset;
+            long length = Math.min(TRANSFER_SEGMENT_SIZE, fileSize - offset);
+            segments.add(() -> receiveSegment(fileName, position, length, info.version, partialFile, progressFile, done, prefix));
+        }
+        return runSegments(segments);
+    }
+
+    private static boolean receiveSegment(String fileName, long offset, long length, long version, File partialFile, File progressFile,
+                                          NavigableMap<Long, Long> done, long[] prefix) throws IOException {
+        try (Connection connection = new Connection()) {
+            if (receive(connection.channel, connection.dos, connection.dis, fileName, offset, length, partialFile, version, null) == null) {
+                return false;
+            }
+        }
+        // Avancer la partie complète du fichier .part au fil des segments reçus
+        synchronized (done) {
+            done.put(offset, offset + length);
+            Long end;
+            while ((end = done.remove(prefix[0])) != null) {
+                prefix[0] = end;
+            }
+            Files.writeString(progressFile.toPath(), Long.toString(prefix[0]));
+        }
+        return true;
+    }
+
+    // Récupérer une plage d'octets, écrite à sa position dans le fichier téléchargé. Si le fichier
+    // local contient une autre version (fichier .version), il est vidé avant d'y écrire la plage.
+    private static void handleReceiveRange(ByteChannel channel, DataOutputStream dos, DataInputStream dis, String fileName, long offset, long length) throws IOException {
+        File outputFile = new File(DOWNLOAD_DIR + "/" + fileName);
+        File versionFile = new File(DOWNLOAD_DIR + "/" + fileName + ".version");
+        FileInfo info;
+        try {
+            info = receive(channel, dos, dis, fileName, offset, length, outputFile, outputFile.exists() ? readVersion(versionFile) : null,
+                    versionFile);
+        } catch (FileChangedException e) {
+            System.out.println(e.getMessage() + " : plages reçues précédemment effacées");
+            channel.close();
+            truncate(outputFile, 0);
+            try (Connection connection = new Connection()) {
+                info = receive(connection.channel, connection.dos, connection.dis, fileName, offset, length, outputFile, null, versionFile);
+            }
+        }
+        if (info != null) {
+            System.out.println("Plage reçue dans : " + outputFile.getAbsolutePath());
+        }
+    }
+
+    // Demander la plage [offset, offset + length) (length < 0 : jusqu'à la fin) et l'écrire
+    // à sa position dans outputFile ; retourne la taille et la version du fichier, ou null
+    // s'il n'existe pas sur le serveur (version : celle attendue, null si quelconque ; versionFile :
+    // où noter la version reçue avant d'écrire les données, null si inutile)
+    private static FileInfo receive(ByteChannel channel, DataOutputStream dos, DataInputStream dis, String fileName, long offset, long length,
+                                    File outputFile, Long version, File versionFile) throws IOException {
         // Envoyer la commande RECEIVE
         dos.writeUTF("RECEIVE");
 
-        // Envoyer le nom du fichier à récupérer
+        // Envoyer le nom du fichier à récupérer et la plage demandée
         dos.writeUTF(fileName);
+        dos.writeLong(offset);
+        dos.writeLong(length);
+        dos.flush();
+
+        return readFile(channel, dis, fileName, outputFile, version, versionFile);
+    }
+
+    // Taille, version (CRC32C du contenu) et plage envoyée annoncées par la réponse à RECEIVE
+    private static final class FileInfo {
+        final long size;
+        final long version;
+        final long start;
+        final long count;
+
+        FileInfo(long size, long version, long start, long count) {
+            this.size = size;
+            this.version = version;
+            this.start = start;
+            this.count = count;
+        }
+    }
+
+    // Le fichier a été remplacé sur le serveur depuis la réception des plages précédentes
+    private static final class FileChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        FileChangedException(String fileName) {
+            super("Fichier " + fileName + " modifié sur le serveur");
+        }
+    }
 
+    // Lire la réponse à RECEIVE et écrire la plage reçue à sa position dans outputFile ;
+    // retourne la taille et la version du fichier, ou null s'il n'existe pas sur le serveur.
+    // Si la version diffère de expectedVersion (null : quelconque), rien n'est écrit
+    // (FileChangedException) et la connexion, dont la réponse n'a pas été lue, est inutilisable.
+    // La version est notée dans versionFile (s'il est donné) avant d'écrire les données.
+    private static FileInfo readFile(ByteChannel channel, DataInputStream dis, String fileName, File outputFile, Long expectedVersion,
+                                     File versionFile) throws IOException {
+        FileInfo info = readHeader(dis, fileName, expectedVersion, versionFile);
+        if (info == null) {
+            return null;
+        }
+        long position = info.start;
+        long remaining = info.count;
+
+        // Recevoir le contenu à sa position, sans tronquer le fichier local
+        try (FileChannel fileChannel = openAt(outputFile, position, remaining)) {
+            while (remaining > 0) {
+                long transferred = fileChannel.transferFrom(channel, position, remaining);
+                if (transferred == 0) {
+                    throw new EOFException("Transfert interrompu : " + remaining + " octets manquants");
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+        return info;
+    }
+
+    // Lire l'en-tête de la réponse à RECEIVE (voir readFile) ; null si le fichier n'existe pas
+    private static FileInfo readHeader(DataInputStream dis, String fileName, Long expectedVersion, File versionFile) throws IOException {
         // Vérifier si le fichier existe sur le serveur
         boolean fileExists = dis.readBoolean();
         if (!fileExists) {
             System.out.println("Le fichier " + fileName + " n'existe pas sur le serveur.");
-            return;
+            return null;
         }
 
         // Recevoir le nom du fichier
         String receivedFileName = dis.readUTF();
         System.out.println("Réception du fichier : " + receivedFileName);
 
-        // Recevoir la taille du fichier
+        // Recevoir la taille du fichier et la plage envoyée
         long fileSize = dis.readLong();
+        long version = dis.readLong();
+        long position = dis.readLong();
+        long remaining = dis.readLong();
+        if (expectedVersion != null && version != expectedVersion) {
+            throw new FileChangedException(fileName);
+        }
+        if (versionFile != null) {
+            Files.writeString(versionFile.toPath(), Long.toString(version));
+        }
         System.out.println("Taille du fichier : " + fileSize + " octets");
+        if (position != 0 || remaining != fileSize) {
+            System.out.println("Plage reçue : " + remaining + " octets à partir de l'octet " + position);
+        }
+
+        return new FileInfo(fileSize, version, position, remaining);
+    }
 
-        // Recevoir le contenu du fichier
-        File outputFile = new File(DOWNLOAD_DIR + "/" + receivedFileName);
-        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while (fileSize > 0 && (bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, fileSize))) != -1) {
-                fos.write(buffer, 0, bytesRead);
-                fileSize -= bytesRead;
+    // Ouvrir outputFile sans le tronquer, prêt à recevoir count octets à partir de position
+    private static FileChannel openAt(File outputFile, long position, long count) throws IOException {
+        FileChannel fileChannel = new RandomAccessFile(outputFile, "rw").getChannel();
+        try {
+            if (count > 0 && fileChannel.size() < position) {
+                // transferFrom n'écrit rien au-delà de la fin du fichier : l'étendre jusqu'à la plage
+                fileChannel.write(ByteBuffer.allocate(1), position - 1);
             }
+        } catch (IOException e) {
+            fileChannel.close();
+            throw e;
         }
+        return fileChannel;
+    }
 
-        System.out.println("Fichier reçu : " + outputFile.getAbsolutePath());
+    // Envoyer tous les fichiers d'un dossier, ou exécuter les opérations d'un manifeste (une par
+    // ligne : SEND chemin, RECEIVE nom ou DELETE nom), sur cette seule connexion. Les requêtes
+    // sont envoyées à la suite par un second thread sans attendre les réponses ; celles-ci
+    // arrivent dans l'ordre où le serveur termine les requêtes et portent leur numéro.
+    private static void handleBatchCommand(ByteChannel channel, DataOutputStream dos, DataInputStream dis, String source) throws IOException {
+        List<String[]> operations = readOperations(new File(source));
+        if (operations.isEmpty()) {
+            System.out.println("Aucune opération à exécuter.");
+            return;
+        }
+        for (String[] operation : operations) {
+            if (operation[0].equals("RECEIVE")) {
+                new File(DOWNLOAD_DIR + "/" + operation[1] + ".part").delete();
+            }
+        }
+
+        dos.writeUTF("BATCH");
+        Thread writer = new Thread(() -> {
+            try {
+                writeRequests(channel, dos, operations);
+            } catch (IOException e) {
+                System.err.println("Erreur lors de l'envoi du lot : " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException closeError) {
+                    // Connexion déjà fermée
+                }
+            }
+        });
+        writer.start();
+
+        int failures = 0;
+        // Réceptions dont le contenu arrive encore, par numéro de requête
+        Map<Integer, BatchDownload> downloads = new HashMap<>();
+        try {
+            failures = readResponses(dis, operations, downloads);
+        } finally {
+            for (BatchDownload download : downloads.values()) {
+                download.file.close();
+            }
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Lot terminé : " + operations.size() + " opérations, " + failures + " échecs.");
+    }
+
+    // Contenu d'un fichier du lot en cours de réception : il arrive par morceaux (longueur,
+    // octets) entre lesquels s'intercalent les réponses aux autres requêtes
+    private static final class BatchDownload {
+        final FileChannel file;
+        long position;
+        long remaining;
+
+        BatchDownload(FileChannel file, long position, long remaining) {
+            this.file = file;
+            this.position = position;
+            this.remaining = remaining;
+        }
+    }
+
+    // Lire les réponses du lot jusqu'à sa fin ; retourne le nombre d'échecs
+    private static int readResponses(DataInputStream dis, List<String[]> operations, Map<Integer, BatchDownload> downloads) throws IOException {
+        int failures = 0;
+        byte[] frame = new byte[0];
+        int requestId;
+        while ((requestId = dis.readInt()) != 0) {
+            if (requestId < 1 || requestId > operations.size()) {
+                throw new IOException("Réponse à une requête inconnue : " + requestId);
+            }
+            String[] operation = operations.get(requestId - 1);
+            switch (operation[0]) {
+                case "SEND":
+                    String name = new File(operation[1]).getName();
+                    if (dis.readBoolean()) {
+                        System.out.println("Fichier envoyé au serveur : " + name);
+                    } else {
+                        System.out.println("Le serveur n'a pas pu enregistrer le fichier : " + name);
+                        failures++;
+                    }
+                    break;
+                case "RECEIVE":
+                    File partialFile = new File(DOWNLOAD_DIR + "/" + operation[1] + ".part");
+                    BatchDownload download = downloads.get(requestId);
+                    if (download == null) {
+                        // En-tête de la réponse ; le contenu suit dans les messages suivants
+                        FileInfo info = readHeader(dis, operation[1], null,
+                                new File(DOWNLOAD_DIR + "/" + operation[1] + ".version"));
+                        if (info == null) {
+                            failures++;
+                            break;
+                        }
+                        download = new BatchDownload(openAt(partialFile, info.start, info.count), info.start, info.count);
+                        if (download.remaining > 0) {
+                            downloads.put(requestId, download);
+                            break;
+                        }
+                    } else {
+                        int length = dis.readInt();
+                        if (length <= 0 || length > download.remaining) {
+                            throw new IOException("Morceau de fichier invalide : " + operation[1] + " (" + length + " octets)");
+                        }
+                        if (frame.length < length) {
+                            frame = new byte[length];
+                        }
+                        dis.readFully(frame, 0, length);
+                        ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+                        while (buffer.hasRemaining()) {
+                            download.position += download.file.write(buffer, download.position);
+                        }
+                        download.remaining -= length;
+                        if (download.remaining > 0) {
+                            break;
+                        }
+                        downloads.remove(requestId);
+                    }
+                    download.file.close();
+                    File outputFile = new File(DOWNLOAD_DIR + "/" + operation[1]);
+                    Files.move(partialFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    System.out.println("Fichier reçu : " + outputFile.getAbsolutePath());
+                    break;
+                default:
+                    System.out.println(operation[1] + " : " + dis.readUTF());
+                    break;
+            }
+        }
+        if (!downloads.isEmpty()) {
+            throw new EOFException("Lot terminé avant la fin de " + downloads.size() + " fichiers");
+        }
+        return failures;
+    }
+
+    // Opérations d'un lot : envoi de chaque fichier d'un dossier, ou lignes d'un manifeste
+    private static List<String[]> readOperations(File source) throws IOException {
+        List<String[]> operations = new ArrayList<>();
+        if (source.isDirectory()) {
+            File[] files = source.listFiles(File::isFile);
+            Arrays.sort(files);
+            for (File file : files) {
+                operations.add(new String[] {"SEND", file.getPath()});
+            }
+            return operations;
+        }
+        for (String line : Files.readAllLines(source.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] operation = line.split("\\s+", 2);
+            operation[0] = operation[0].toUpperCase();
+            if (operation.length < 2 || !Arrays.asList("SEND", "RECEIVE", "DELETE").contains(operation[0])) {
+                System.out.println("Ligne ignorée : " + line);
+            } else if (operation[0].equals("SEND") && !new File(operation[1]).isFile()) {
+                System.out.println("Le fichier " + operation[1] + " n'existe pas ou n'est pas un fichier valide.");
+            } else {
+                operations.add(operation);
+            }
+        }
+        return operations;
+    }
+
+    // Écrire les requêtes du lot, numérotées à partir de 1, puis le numéro 0 de fin de lot
+    private static void writeRequests(ByteChannel channel, DataOutputStream dos, List<String[]> operations) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(dos, 64 * 1024));
+        for (int i = 0; i < operations.size(); i++) {
+            String[] operation = operations.get(i);
+            out.writeInt(i + 1);
+            out.writeUTF(operation[0]);
+            switch (operation[0]) {
+                case "SEND":
+                    File file = new File(operation[1]);
+                    try (FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+                        long fileSize = fileChannel.size();
+                        out.writeUTF(file.getName());
+                        out.writeLong(fileSize);
+                        out.flush();
+                        // Contenu envoyé sans copie, à la suite de l'en-tête
+                        long position = 0;
+                        while (position < fileSize) {
+                            position += fileChannel.transferTo(position, fileSize - position, channel);
+                        }
+                    }
+                    break;
+                case "RECEIVE":
+                    out.writeUTF(operation[1]);
+                    out.writeLong(0);
+                    out.writeLong(-1);
+                    break;
+                default:
+                    out.writeUTF(operation[1]);
+                    break;
+            }
+        }
+        out.writeInt(0);
+        out.flush();
     }
 
     private static void deleteFile(DataOutputStream dos, DataInputStream dis, String fileToDelete) {
@@ -171,6 +800,7 @@ public class Client {
 
             // Envoyer le nom du fichier à supprimer
             dos.writeUTF(fileToDelete);
+            dos.flush();
 
             // Recevoir la réponse du serveur
             String response = dis.readUTF();
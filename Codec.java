@@ -0,0 +1,153 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+
+// Compression par blocs indépendants, négociée par connexion (commande CODEC) et utilisée
+// pour les morceaux stockés par les sous-serveurs. "lz" : codec rapide de la famille LZ77
+// (format proche de LZ4) ; "deflate" : meilleur taux, plus lent, disponible partout.
+// Un bloc qui ne gagne pas au moins 1/16 de sa taille n'est pas compressé.
+// Une instance garde ses tampons de travail : elle n'est utilisée que par un seul thread.
+abstract class Codec {
+    static final String NONE = "none";
+    static final byte RAW = 0; // Identifiant d'un bloc stocké tel quel
+    static final String[] SUPPORTED = {"lz", "deflate"};
+    private static final int MIN_BLOCK_SIZE = 64; // Blocs plus petits jamais compressés
+
+    abstract String name();
+
+    // Identifiant enregistré devant chaque bloc compressé
+    abstract byte id();
+
+    // Compresser length octets de source dans target à partir de targetOffset ;
+    // retourne la longueur compressée, ou -1 si le bloc ne se compresse pas assez
+    final int compress(byte[] source, int length, byte[] target, int targetOffset) {
+        if (length < MIN_BLOCK_SIZE) {
+            return -1;
+        }
+        return compress(source, length, target, targetOffset, length - length / 16);
+    }
+
+    // Compresser en au plus limit octets ; -1 dès que la limite est dépassée
+    abstract int compress(byte[] source, int length, byte[] target, int targetOffset, int limit);
+
+    // Décompresser exactement targetLength octets
+    abstract void decompress(byte[] source, int sourceOffset, int sourceLength, byte[] target, int targetLength) throws IOException;
+
+    // Codec correspondant au nom négocié, null pour "none"
+    static Codec forName(String name) {
+        switch (name) {
+            case "lz":
+                return new LzCodec();
+            case "deflate":
+                return new DeflateCodec();
+            case NONE:
+                return null;
+            default:
+                throw new IllegalArgumentException("Codec inconnu : " + name);
+        }
+    }
+
+    static Codec forId(byte id) throws IOException {
+        for (String name : SUPPORTED) {
+            Codec codec = forName(name);
+            if (codec.id() == id) {
+                return codec;
+            }
+        }
+        throw new IOException("Codec inconnu : " + id);
+    }
+
+    // Premier codec de offered (liste par ordre de préférence) également présent dans accepted,
+    // "none" s'il n'y en a aucun
+    static String negotiate(String offered, String accepted) {
+        Set<String> acceptedCodecs = new HashSet<>();
+        for (String codec : accepted.split(",")) {
+            acceptedCodecs.add(codec.trim());
+        }
+        for (String codec : offered.split(",")) {
+            codec = codec.trim();
+            if (acceptedCodecs.contains(codec) && Arrays.asList(SUPPORTED).contains(codec)) {
+                return codec;
+            }
+        }
+        return NONE;
+    }
+
+    // Canal lisant dans in et écrivant dans out, pour les transferts qui utilisent sinon
+    // directement le canal de la socket (transferTo / transferFrom)
+    static ByteChannel channel(DataInputStream in, DataOutputStream out) {
+        ReadableByteChannel reader = Channels.newChannel(in);
+        WritableByteChannel writer = Channels.newChannel(out);
+        return new ByteChannel() {
+            @Override
+            public int read(ByteBuffer buffer) throws IOException {
+                return reader.read(buffer);
+            }
+
+            @Override
+            public int write(ByteBuffer buffer) throws IOException {
+                return writer.write(buffer);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return writer.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+                writer.close();
+            }
+        };
+    }
+
+    // Deflate brut (sans en-tête zlib : chaque bloc a sa propre trame), au niveau le plus
+    // rapide : le niveau par défaut gagne peu en taux pour un débit divisé par trois
+    static final class DeflateCodec extends Codec {
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        private final Inflater inflater = new Inflater(true);
+
+        @Override
+        String name() {
+            return "deflate";
+        }
+
+        @Override
+        byte id() {
+            return 2;
+        }
+
+        @Override
+        int compress(byte[] source, int length, byte[] target, int targetOffset, int limit) {
+            deflater.reset();
+            deflater.setInput(source, 0, length);
+            deflater.finish();
+            int compressed = deflater.deflate(target, targetOffset, limit);
+            return deflater.finished() ? compressed : -1;
+        }
+
+        @Override
+        void decompress(byte[] source, int sourceOffset, int sourceLength, byte[] target, int targetLength) throws IOException {
+            inflater.reset();
+            inflater.setInput(source, sourceOffset, sourceLength);
+            try {
+                int length = 0;
+                while (length < targetLength && !inflater.finished()) {
+                    int inflated = inflater.inflate(target, length, targetLength - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != targetLength) {
+                    throw new IOException("Bloc deflate tronqué : " + length + " octets sur " + targetLength);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Bloc deflate invalide", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+// Micro-benchmark des codecs de compression sur deux jeux de données (journal CSV,
+// octets aléatoires) : taux de compression, débit de compression et de décompression
+// sur un cœur, puis débit d'un envoi sur une socket locale à travers CodecOutputStream
+// et CodecInputStream, comme entre le client, le serveur principal et les sous-serveurs.
+// Usage : java CodecBenchmark [taille_en_Mo]   (défaut : 64)
+public class CodecBenchmark {
+    private static final int RUNS = 3;
+    private static final String[] CODECS = {Codec.NONE, "lz", "deflate"};
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 64) * 1024 * 1024;
+        Map<String, byte[]> datasets = new LinkedHashMap<>();
+        datasets.put("csv", csv(size));
+        byte[] random = new byte[size];
+        new Random(42).nextBytes(random);
+        datasets.put("aléatoire", random);
+
+        for (Map.Entry<String, byte[]> dataset : datasets.entrySet()) {
+            byte[] data = dataset.getValue();
+            System.out.printf("Données %s, %,d octets%n", dataset.getKey(), data.length);
+            System.out.printf("  %-8s %8s %14s %14s %14s%n", "codec", "taux", "compression", "décompression", "socket");
+            for (String name : CODECS) {
+                byte[] encoded = encode(data, name);
+                double compress = best(() -> encode(data, name), data.length);
+                double decompress = best(() -> decode(encoded, data.length), data.length);
+                double socket = best(() -> sendOverSocket(data, name), data.length);
+                System.out.printf("  %-8s %8.2f %9.1f Mo/s %9.1f Mo/s %9.1f Mo/s%n",
+                        name, (double) data.length / encoded.length, compress, decompress, socket);
+            }
+        }
+    }
+
+    private interface Run {
+        void run() throws IOException;
+    }
+
+    // Meilleur débit (Mo/s) sur RUNS exécutions après un échauffement
+    private static double best(Run run, long bytes) throws IOException {
+        run.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return bytes / (best / 1e9) / (1024 * 1024);
+    }
+
+    private static byte[] encode(byte[] data, String name) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(data.length / 2);
+        OutputStream out = wrap(encoded, name);
+        out.write(data);
+        out.flush();
+        return encoded.toByteArray();
+    }
+
+    private static void decode(byte[] encoded, int length) throws IOException {
+        InputStream in = new ByteArrayInputStream(encoded);
+        if (length != encoded.length) {
+            in = new CodecInputStream(in);
+        }
+        byte[] buffer = new byte[CodecOutputStream.BLOCK_SIZE];
+        while (in.read(buffer) >= 0) {
+            // Données jetées
+        }
+    }
+
+    private static OutputStream wrap(OutputStream out, String name) {
+        Codec codec = Codec.forName(name);
+        return codec == null ? out : new CodecOutputStream(out, codec);
+    }
+
+    // Envoyer les données sur une socket locale ; le récepteur décompresse et jette ce qu'il lit
+    private static void sendOverSocket(byte[] data, String name) throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread receiver = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    InputStream in = socket.getInputStream();
+                    if (!name.equals(Codec.NONE)) {
+                        in = new CodecInputStream(new BufferedInputStream(in, 64 * 1024));
+                    }
+                    byte[] buffer = new byte[CodecOutputStream.BLOCK_SIZE];
+                    while (in.read(buffer) >= 0) {
+                        // Données jetées
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            receiver.start();
+            try (Socket socket = new Socket(server.getInetAddress(), server.getLocalPort())) {
+                OutputStream out = wrap(socket.getOutputStream(), name);
+                for (int offset = 0; offset < data.length; offset += CodecOutputStream.BLOCK_SIZE) {
+                    out.write(data, offset, Math.min(CodecOutputStream.BLOCK_SIZE, data.length - offset));
+                }
+                out.flush();
+            }
+            try {
+                receiver.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Journal d'accès au format CSV, typique des fichiers échangés
+    private static byte[] csv(int size) {
+        Random random = new Random(42);
+        String[] users = {"alice", "bob", "carol", "dave"};
+        String[] paths = {"/api/v1/items/", "/api/v1/users/", "/static/img/", "/login?next=/"};
+        int[] statuses = {200, 200, 200, 304, 404, 500};
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 256);
+        while (out.size() < size) {
+            String line = String.format("2024-05-%02d %02d:%02d:%02d,%s,GET %s%d,%d,%d%n",
+                    1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60),
+                    users[random.nextInt(users.length)], paths[random.nextInt(paths.length)], random.nextInt(100000),
+                    statuses[random.nextInt(statuses.length)], 10 + random.nextInt(990));
+            byte[] bytes = line.getBytes();
+            out.write(bytes, 0, bytes.length);
+        }
+        return Arrays.copyOf(out.toByteArray(), size);
+    }
+}
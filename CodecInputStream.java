@@ -0,0 +1,91 @@
+import java.io.*;
+
+// Lecture d'un flux écrit par CodecOutputStream : chaque trame est lue et décompressée
+// seulement lorsque ses octets sont demandés, jamais en avance sur le flux sous-jacent.
+class CodecInputStream extends FilterInputStream {
+    private final DataInputStream in;
+    private final byte[] block = new byte[CodecOutputStream.BLOCK_SIZE];
+    private byte[] compressed = new byte[0];
+    private Codec codec;
+    private int count;
+    private int position;
+
+    CodecInputStream(InputStream in) {
+        super(in);
+        this.in = new DataInputStream(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == count && !readBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == count && !readBlock()) {
+            return -1;
+        }
+        int length = Math.min(len, count - position);
+        System.arraycopy(block, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (position < count || readBlock())) {
+            int length = (int) Math.min(n - skipped, count - position);
+            position += length;
+            skipped += length;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return count - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    // Lire la trame suivante ; faux en fin de flux
+    private boolean readBlock() throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return false;
+        }
+        int length = in.readInt();
+        if (length < 0 || length > block.length) {
+            throw new IOException("Trame compressée invalide : " + length + " octets");
+        }
+        if (type == Codec.RAW) {
+            in.readFully(block, 0, length);
+        } else {
+            int compressedLength = in.readInt();
+            if (compressedLength < 0 || compressedLength > block.length) {
+                throw new IOException("Trame compressée invalide : " + compressedLength + " octets");
+            }
+            if (compressed.length < compressedLength) {
+                compressed = new byte[compressedLength];
+            }
+            in.readFully(compressed, 0, compressedLength);
+            if (codec == null || codec.id() != type) {
+                codec = Codec.forId((byte) type);
+            }
+            codec.decompress(compressed, 0, compressedLength, block, length);
+        }
+        count = length;
+        position = 0;
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.*;
+
+// Flux compressé par blocs d'au plus BLOCK_SIZE octets. Chaque bloc forme une trame
+// indépendante : [identifiant du codec (0 : non compressé)][longueur d'origine]
+// [longueur compressée, si compressé][données]. flush() termine le bloc en cours, si bien
+// que le pair peut lire tout ce qui a été écrit avant d'attendre une réponse.
+// Après un bloc incompressible, les blocs suivants sont envoyés tels quels sans essai
+// (1, 2, 4... jusqu'à MAX_SKIPPED blocs), pour ne pas payer le codec sur des données
+// déjà compressées.
+class CodecOutputStream extends FilterOutputStream {
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int HEADER_SIZE = 9;
+    private static final int MAX_SKIPPED = 32;
+
+    private final Codec codec;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final byte[] frame = new byte[HEADER_SIZE + BLOCK_SIZE]; // Un bloc compressé est plus court que le bloc
+    private int count;
+    private int backoff;  // Blocs à sauter après le prochain échec
+    private int skipped;  // Blocs restant à envoyer sans essai de compression
+
+    CodecOutputStream(OutputStream out, Codec codec) {
+        super(out);
+        this.codec = codec;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) {
+            writeBlock();
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == block.length) {
+                writeBlock();
+            }
+            int length = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, length);
+            count += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    // Écrire le bloc en cours en une seule trame, compressée si elle y gagne
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        int compressed = -1;
+        if (skipped > 0) {
+            skipped--;
+        } else {
+            compressed = codec.compress(block, count, frame, HEADER_SIZE);
+            if (compressed < 0) {
+                backoff = Math.min(Math.max(1, backoff * 2), MAX_SKIPPED);
+                skipped = backoff;
+            } else {
+                backoff = 0;
+            }
+        }
+        int length;
+        if (compressed < 0) {
+            frame[0] = Codec.RAW;
+            writeInt(frame, 1, count);
+            System.arraycopy(block, 0, frame, 5, count);
+            length = 5 + count;
+        } else {
+            frame[0] = codec.id();
+            writeInt(frame, 1, count);
+            writeInt(frame, 5, compressed);
+            length = HEADER_SIZE + compressed;
+        }
+        out.write(frame, 0, length);
+        count = 0;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
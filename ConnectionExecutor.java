@@ -0,0 +1,108 @@
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
+
+// Exécution bornée des connexions acceptées.
+// Au plus maxInFlight connexions sont traitées en même temps et au plus maxQueued
+// attendent leur tour ; au-delà, la connexion est refusée et fermée immédiatement.
+// Mode "fixed" : pool fixe de maxInFlight threads.
+// Mode "virtual" : un thread virtuel par connexion (JDK 21+), limité par un sémaphore.
+class ConnectionExecutor {
+    private final String name;
+    private final ExecutorService executor;
+    private final Semaphore admission; // Connexions en cours + en attente
+    private final Semaphore running;   // Connexions en cours
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    // port : port d'écoute servi, étiquette des jauges (plusieurs serveurs par processus)
+    ConnectionExecutor(String name, int port, String mode, int maxInFlight, int maxQueued) {
+        this.name = name;
+        this.admission = new Semaphore(maxInFlight + maxQueued);
+        this.running = new Semaphore(maxInFlight);
+        ExecutorService virtualExecutor = "virtual".equalsIgnoreCase(mode) ? newVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(maxInFlight,
+                    r -> new Thread(r, name + "-" + threadCount.incrementAndGet()));
+        }
+        // Un processus peut héberger plusieurs serveurs (LoadGenerator) : jauges distinguées par port
+        String portLabel = Integer.toString(port);
+        Metrics.gauge("connections_accepted_total", accepted::get, "port", portLabel);
+        Metrics.gauge("connections_rejected_total", rejected::get, "port", portLabel);
+        Metrics.gauge("connections_in_flight", inFlight::get, "port", portLabel);
+        Metrics.gauge("connections_queued", queued::get, "port", portLabel);
+        Log.info(name + " : exécution " + (virtualExecutor != null ? "virtual" : "fixed")
+                + ", " + maxInFlight + " connexions simultanées, " + maxQueued + " en attente");
+    }
+
+    // Confier la connexion au gestionnaire, ou la refuser si les limites sont atteintes
+    boolean submit(Socket socket, Consumer<Socket> handler) {
+        if (!admission.tryAcquire()) {
+            long count = rejected.incrementAndGet();
+            Log.info(name + " : connexion refusée (surcharge, " + count + " refus) : " + socket.getInetAddress());
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Connexion déjà fermée
+            }
+            return false;
+        }
+        accepted.incrementAndGet();
+        queued.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                running.acquireUninterruptibly();
+                queued.decrementAndGet();
+                inFlight.incrementAndGet();
+                try {
+                    handler.accept(socket);
+                } finally {
+                    inFlight.decrementAndGet();
+                    running.release();
+                }
+            } finally {
+                admission.release();
+            }
+        });
+        return true;
+    }
+
+    long acceptedCount() {
+        return accepted.get();
+    }
+
+    long rejectedCount() {
+        return rejected.get();
+    }
+
+    int inFlightCount() {
+        return inFlight.get();
+    }
+
+    int queuedCount() {
+        return queued.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + " : " + inFlight.get() + " en cours, " + queued.get() + " en attente, "
+                + accepted.get() + " acceptées, " + rejected.get() + " refusées";
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor n'existe qu'à partir du JDK 21
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.info("Threads virtuels indisponibles sur ce JDK, utilisation d'un pool fixe.");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.security.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Découpage d'un flux en morceaux définis par leur contenu (hachage roulant « gear »).
+// Une frontière est placée là où les bits de poids fort de l'empreinte roulante sont nuls :
+// une insertion ou une suppression ne décale que les morceaux voisins, les autres gardent
+// le même contenu et donc la même empreinte SHA-256.
+class ContentChunker {
+    static final int HASH_LENGTH = 32; // SHA-256
+
+    // Table fixe : les frontières doivent être identiques d'une exécution à l'autre
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x5EED_C0DEL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+    private final byte[] current;
+    private int length;
+    private long fingerprint;
+
+    ContentChunker(int minSize, int averageSize, int maxSize) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        int bits = 31 - Integer.numberOfLeadingZeros(averageSize);
+        this.mask = -1L << (64 - bits);
+        this.current = new byte[maxSize];
+    }
+
+    // Ajouter des données ; chaque morceau complété est transmis à out
+    void update(byte[] data, int offset, int count, Consumer<byte[]> out) {
+        for (int i = offset; i < offset + count; i++) {
+            current[length++] = data[i];
+            fingerprint = (fingerprint << 1) + GEAR[data[i] & 0xFF];
+            if ((length >= minSize && (fingerprint & mask) == 0) || length == maxSize) {
+                emit(out);
+            }
+        }
+    }
+
+    // Transmettre le dernier morceau, éventuellement plus court que minSize
+    void finish(Consumer<byte[]> out) {
+        if (length > 0) {
+            emit(out);
+        }
+    }
+
+    static byte[] hash(byte[] chunk) {
+        return hash(chunk, chunk.length);
+    }
+
+    // Empreinte des length premiers octets du tableau
+    static byte[] hash(byte[] chunk, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(chunk, 0, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // SHA-256 est toujours disponible
+        }
+    }
+
+    static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private void emit(Consumer<byte[]> out) {
+        out.accept(Arrays.copyOf(current, length));
+        length = 0;
+        fingerprint = 0;
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.*;
+
+// Micro-benchmark du codage Reed-Solomon sur un seul cœur : calcul de la parité
+// d'une rangée et reconstruction des parties de données perdues.
+// Usage : java ErasureBenchmark [k m taille_cellule]   (défaut : 3 2 1048576)
+public class ErasureBenchmark {
+    private static final int RUNS = 5;
+    private static final int ROWS = 64;
+
+    public static void main(String[] args) {
+        int dataShards = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int parityShards = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int cellSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024 * 1024;
+        ErasureCoder coder = new ErasureCoder(dataShards, parityShards);
+
+        Random random = new Random(42);
+        byte[][] data = new byte[dataShards][cellSize];
+        byte[][] parity = new byte[parityShards][cellSize];
+        for (byte[] cell : data) {
+            random.nextBytes(cell);
+        }
+        long rowBytes = (long) dataShards * cellSize;
+        System.out.printf("Codage %d+%d, cellules de %,d octets%n", dataShards, parityShards, cellSize);
+        report("  codage      ", rowBytes, () -> coder.encode(data, parity, cellSize));
+
+        // Reconstruction des min(k, m) premières parties de données à partir des suivantes et de la parité
+        int lost = Math.min(dataShards, parityShards);
+        int[] available = new int[dataShards];
+        byte[][] cells = new byte[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            available[i] = lost + i;
+            cells[i] = available[i] < dataShards ? data[available[i]] : parity[available[i] - dataShards];
+        }
+        byte[][] original = new byte[lost][];
+        for (int i = 0; i < lost; i++) {
+            original[i] = data[i].clone();
+        }
+        ErasureCoder.Decoder decoder = coder.decoder(available);
+        report("  décodage " + lost + "  ", rowBytes, () -> decoder.decode(cells, data, cellSize));
+        for (int i = 0; i < lost; i++) {
+            if (!Arrays.equals(original[i], data[i])) {
+                throw new IllegalStateException("Partie " + i + " mal reconstruite");
+            }
+        }
+    }
+
+    private static void report(String label, long rowBytes, Runnable row) {
+        for (int i = 0; i < ROWS; i++) {
+            row.run(); // Échauffement
+        }
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ROWS; i++) {
+                row.run();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double seconds = best / 1e9;
+        System.out.printf("%s %10.3f ms  %8.2f Go/s%n", label, best / 1e6 / ROWS, rowBytes * ROWS / seconds / (1L << 30));
+    }
+}
@@ -0,0 +1,207 @@
+import java.util.Arrays;
+
+// Code correcteur Reed-Solomon systématique k+m sur GF(2^8).
+// Les k parties de données sont stockées telles quelles ; les m parties de parité
+// permettent de reconstruire les données à partir de n'importe quelles k parties.
+// La matrice de codage est une matrice de Vandermonde normalisée pour que ses
+// k premières lignes forment l'identité.
+class ErasureCoder {
+    private static final int FIELD_SIZE = 256;
+    private static final int POLYNOMIAL = 0x11D; // x^8 + x^4 + x^3 + x^2 + 1
+    private static final byte[] EXP = new byte[2 * FIELD_SIZE];
+    private static final int[] LOG = new int[FIELD_SIZE];
+    // Table de multiplication complète : MUL[a][b] = a * b
+    private static final byte[][] MUL = new byte[FIELD_SIZE][FIELD_SIZE];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < FIELD_SIZE - 1; i++) {
+            EXP[i] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= FIELD_SIZE) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+            EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+        }
+        for (int a = 1; a < FIELD_SIZE; a++) {
+            for (int b = 1; b < FIELD_SIZE; b++) {
+                MUL[a][b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    private final byte[][] matrix; // (k+m) x k
+
+    ErasureCoder(int dataShards, int parityShards) {
+        if (dataShards < 1 || parityShards < 0 || dataShards + parityShards > FIELD_SIZE) {
+            throw new IllegalArgumentException("Nombre de parties invalide : " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        int total = dataShards + parityShards;
+        byte[][] vandermonde = new byte[total][dataShards];
+        for (int r = 0; r < total; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                vandermonde[r][c] = power(r, c);
+            }
+        }
+        byte[][] top = new byte[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    int dataShards() {
+        return dataShards;
+    }
+
+    int parityShards() {
+        return parityShards;
+    }
+
+    // Calculer les m cellules de parité d'une rangée à partir des k cellules de données
+    // (les octets au-delà de la longueur réelle d'une cellule de données doivent être nuls)
+    void encode(byte[][] data, byte[][] parity, int length) {
+        for (int p = 0; p < parityShards; p++) {
+            combine(matrix[dataShards + p], data, parity[p], length);
+        }
+    }
+
+    // Décodeur pour un ensemble donné de k parties disponibles (indices croissants ou non)
+    Decoder decoder(int[] available) {
+        if (available.length != dataShards) {
+            throw new IllegalArgumentException(dataShards + " parties sont nécessaires au décodage");
+        }
+        byte[][] rows = new byte[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            rows[i] = matrix[available[i]];
+        }
+        return new Decoder(available, invert(rows));
+    }
+
+    final class Decoder {
+        private final boolean[] present = new boolean[dataShards];
+        private final byte[][] inverse;
+
+        private Decoder(int[] available, byte[][] inverse) {
+            this.inverse = inverse;
+            for (int shard : available) {
+                if (shard < dataShards) {
+                    present[shard] = true;
+                }
+            }
+        }
+
+        // Vrai si toutes les parties de données sont disponibles (aucun calcul nécessaire)
+        boolean isIdentity() {
+            for (boolean p : present) {
+                if (!p) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Reconstruire dans data[j] les seules parties de données absentes,
+        // à partir des cellules available (dans l'ordre des indices passés à decoder)
+        void decode(byte[][] available, byte[][] data, int length) {
+            for (int j = 0; j < dataShards; j++) {
+                if (!present[j]) {
+                    combine(inverse[j], available, data[j], length);
+                }
+            }
+        }
+    }
+
+    // out = somme des coefficients[i] * inputs[i]
+    private static void combine(byte[] coefficients, byte[][] inputs, byte[] out, int length) {
+        Arrays.fill(out, 0, length, (byte) 0);
+        for (int i = 0; i < coefficients.length; i++) {
+            int coefficient = coefficients[i] & 0xFF;
+            byte[] in = inputs[i];
+            if (coefficient == 0) {
+                continue;
+            }
+            if (coefficient == 1) {
+                for (int b = 0; b < length; b++) {
+                    out[b] ^= in[b];
+                }
+            } else {
+                byte[] table = MUL[coefficient];
+                for (int b = 0; b < length; b++) {
+                    out[b] ^= table[in[b] & 0xFF];
+                }
+            }
+        }
+    }
+
+    private static byte power(int base, int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (base == 0) {
+            return 0;
+        }
+        return EXP[(LOG[base] * exponent) % (FIELD_SIZE - 1)];
+    }
+
+    private static byte[][] multiply(byte[][] a, byte[][] b) {
+        byte[][] result = new byte[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                int value = 0;
+                for (int i = 0; i < b.length; i++) {
+                    value ^= MUL[a[r][i] & 0xFF][b[i][c] & 0xFF];
+                }
+                result[r][c] = (byte) value;
+            }
+        }
+        return result;
+    }
+
+    // Inversion par élimination de Gauss-Jordan
+    private static byte[][] invert(byte[][] source) {
+        int n = source.length;
+        byte[][] work = new byte[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(source[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+        for (int c = 0; c < n; c++) {
+            int pivot = c;
+            while (pivot < n && work[pivot][c] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalArgumentException("Matrice non inversible");
+            }
+            byte[] swap = work[c];
+            work[c] = work[pivot];
+            work[pivot] = swap;
+
+            int scale = LOG[work[c][c] & 0xFF];
+            for (int i = 0; i < 2 * n; i++) {
+                if (work[c][i] != 0) {
+                    work[c][i] = EXP[LOG[work[c][i] & 0xFF] - scale + (FIELD_SIZE - 1)];
+                }
+            }
+            for (int r = 0; r < n; r++) {
+                int factor = work[r][c] & 0xFF;
+                if (r != c && factor != 0) {
+                    for (int i = 0; i < 2 * n; i++) {
+                        work[r][i] ^= MUL[factor][work[c][i] & 0xFF];
+                    }
+                }
+            }
+        }
+        byte[][] inverse = new byte[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, inverse[r], 0, n);
+        }
+        return inverse;
+    }
+}
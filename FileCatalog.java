@@ -0,0 +1,329 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Catalogue des fichiers du serveur principal.
+// Les entrées sont gardées en mémoire dans une table concurrente triée par nom (lectures
+// sans verrou, parcours par préfixe et par page) et chaque modification est ajoutée à un journal sur disque, relu au démarrage.
+// Le journal est périodiquement compacté : il est réécrit avec les seules entrées vivantes.
+class FileCatalog implements Closeable {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte ENTRY_VERSION = 5; // 2 : codage k+m et taille de cellule, 3 : contenu en ligne, 4 : réplicas, 5 : génération
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 10000;
+
+    private final ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private final File logFile;
+    private final Object logLock = new Object();
+    private final ScheduledExecutorService compactor;
+    private DataOutputStream log;
+    private long logRecords;
+
+    // Description d'un fichier stocké : taille, découpage en parties et emplacement de chacune
+    static final class Entry {
+        final String name;
+        final long size;
+        final long checksum;   // CRC32C du contenu complet
+        final long createdAt;  // Date d'enregistrement (ms)
+        // Propre à chaque envoi et inclus dans les noms des parties : un nouvel envoi du même nom
+        // écrit d'autres parties que celles de la version enregistrée (0 : entrées antérieures)
+        final long generation;
+        final int dataShards;   // Parties de données (k)
+        final int parityShards; // Parties de parité (m)
+        final int cellSize;     // Taille des cellules entrelacées (0 : parties contiguës)
+        final long[] partSizes;
+        final String[][] nodes; // Sous-serveurs de chaque partie : celui d'origine puis ses réplicas
+        final byte[] inline;   // Contenu des petits fichiers, gardé dans le catalogue (sinon null)
+
+        Entry(String name, long size, long checksum, long createdAt, long generation, int dataShards, int parityShards,
+              int cellSize, long[] partSizes, String[][] nodes) {
+            this.name = name;
+            this.size = size;
+            this.checksum = checksum;
+            this.createdAt = createdAt;
+            this.generation = generation;
+            this.dataShards = dataShards;
+            this.parityShards = parityShards;
+            this.cellSize = cellSize;
+            this.partSizes = partSizes;
+            this.nodes = nodes;
+            this.inline = null;
+        }
+
+        // Petit fichier stocké dans le catalogue, sans partie sur les sous-serveurs
+        Entry(String name, byte[] inline, long checksum, long createdAt) {
+            this.name = name;
+            this.size = inline.length;
+            this.checksum = checksum;
+            this.createdAt = createdAt;
+            this.generation = 0;
+            this.dataShards = 0;
+            this.parityShards = 0;
+            this.cellSize = 0;
+            this.partSizes = new long[0];
+            this.nodes = new String[0][];
+            this.inline = inline;
+        }
+
+        String partName(int index) {
+            return generation == 0 ? name + "_part" + (index + 1) : name + "_v" + generation + "_part" + (index + 1);
+        }
+
+        StripeLayout layout() {
+            return new StripeLayout(size, dataShards, parityShards, cellSize);
+        }
+    }
+
+    FileCatalog(File logFile, long compactionIntervalSeconds) throws IOException {
+        this.logFile = logFile;
+        long start = System.currentTimeMillis();
+        long validLength = load();
+        // Un enregistrement tronqué (arrêt brutal pendant l'écriture) est ignoré
+        try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+            raf.setLength(validLength);
+        }
+        Log.info("Catalogue chargé : " + entries.size() + " fichiers (" + logRecords
+                + " enregistrements) en " + (System.currentTimeMillis() - start) + " ms");
+        this.log = openLog();
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "catalog-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded, 0, compactionIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    // Instantané des entrées, lu sans verrou
+    List<Entry> snapshot() {
+        return new ArrayList<>(entries.values());
+    }
+
+    // Au plus limit entrées dont le nom commence par prefix, dans l'ordre des noms,
+    // en reprenant strictement après after (chaîne vide pour la première page)
+    List<Entry> page(String prefix, String after, int limit) {
+        List<Entry> page = new ArrayList<>();
+        NavigableMap<String, Entry> candidates = after.compareTo(prefix) >= 0
+                ? entries.tailMap(after, false)
+                : entries.tailMap(prefix, true);
+        for (Entry entry : candidates.values()) {
+            if (page.size() >= limit || !entry.name.startsWith(prefix)) {
+                break;
+            }
+            page.add(entry);
+        }
+        return page;
+    }
+
+    // Retourne l'entrée remplacée, ou null
+    Entry put(Entry entry) throws IOException {
+        synchronized (logLock) {
+            writePut(log, entry);
+            log.flush();
+            logRecords++;
+            return entries.put(entry.name, entry);
+        }
+    }
+
+    Entry remove(String name) throws IOException {
+        synchronized (logLock) {
+            Entry removed = entries.remove(name);
+            if (removed != null) {
+                writeRemove(name);
+            }
+            return removed;
+        }
+    }
+
+    // Retirer entry seulement si c'est toujours la version enregistrée sous son nom
+    boolean remove(Entry entry) throws IOException {
+        synchronized (logLock) {
+            if (!entries.remove(entry.name, entry)) {
+                return false;
+            }
+            writeRemove(entry.name);
+            return true;
+        }
+    }
+
+    private void writeRemove(String name) throws IOException {
+        log.writeByte(DELETE);
+        log.writeUTF(name);
+        log.flush();
+        logRecords++;
+    }
+
+    // Réécrire le journal lorsqu'il contient nettement plus d'enregistrements que d'entrées vivantes
+    void compactIfNeeded() {
+        synchronized (logLock) {
+            if (logRecords < MIN_RECORDS_BEFORE_COMPACTION || logRecords < 2L * entries.size()) {
+                return;
+            }
+            try {
+                compact();
+            } catch (IOException e) {
+                Log.info("Erreur lors du compactage du catalogue : " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        synchronized (logLock) {
+            log.close();
+        }
+    }
+
+    private void compact() throws IOException {
+        File tempFile = new File(logFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1024 * 1024))) {
+            for (Entry entry : entries.values()) {
+                writePut(out, entry);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        log.close();
+        Files.move(tempFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Log.info("Catalogue compacté : " + logRecords + " enregistrements réduits à " + entries.size());
+        logRecords = entries.size();
+        log = openLog();
+    }
+
+    private DataOutputStream openLog() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true), 64 * 1024));
+    }
+
+    // Rejouer le journal ; retourne la longueur de la partie valide
+    private long load() throws IOException {
+        if (!logFile.exists()) {
+            return 0;
+        }
+        long validLength = 0;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(logFile), 1024 * 1024));
+             DataInputStream in = new DataInputStream(counter)) {
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    break;
+                }
+                if (type == PUT) {
+                    Entry entry = readPut(in);
+                    entries.put(entry.name, entry);
+                } else if (type == DELETE) {
+                    entries.remove(in.readUTF());
+                } else {
+                    throw new IOException("Enregistrement inconnu dans le catalogue : " + type);
+                }
+                logRecords++;
+                validLength = counter.count;
+            }
+        } catch (EOFException e) {
+            Log.info("Fin du catalogue tronquée, dernier enregistrement ignoré.");
+        }
+        return validLength;
+    }
+
+    private static void writePut(DataOutputStream out, Entry entry) throws IOException {
+        out.writeByte(PUT);
+        out.writeByte(ENTRY_VERSION);
+        out.writeUTF(entry.name);
+        out.writeLong(entry.size);
+        out.writeLong(entry.checksum);
+        out.writeLong(entry.createdAt);
+        out.writeLong(entry.generation);
+        out.writeInt(entry.dataShards);
+        out.writeInt(entry.parityShards);
+        out.writeInt(entry.cellSize);
+        out.writeInt(entry.inline != null ? entry.inline.length : -1);
+        if (entry.inline != null) {
+            out.write(entry.inline);
+        }
+        out.writeInt(entry.partSizes.length);
+        for (int i = 0; i < entry.partSizes.length; i++) {
+            out.writeByte(entry.nodes[i].length);
+            for (String node : entry.nodes[i]) {
+                out.writeUTF(node);
+            }
+            out.writeLong(entry.partSizes[i]);
+        }
+    }
+
+    private static Entry readPut(DataInputStream in) throws IOException {
+        int version = in.readByte();
+        if (version < 1 || version > ENTRY_VERSION) {
+            throw new IOException("Version d'entrée du catalogue non prise en charge : " + version);
+        }
+        String name = in.readUTF();
+        long size = in.readLong();
+        long checksum = in.readLong();
+        long createdAt = in.readLong();
+        long generation = version >= 5 ? in.readLong() : 0;
+        // Version 1 : parties contiguës, sans parité
+        int dataShards = version >= 2 ? in.readInt() : -1;
+        int parityShards = version >= 2 ? in.readInt() : 0;
+        int cellSize = version >= 2 ? in.readInt() : 0;
+        int inlineLength = version >= 3 ? in.readInt() : -1;
+        if (inlineLength >= 0) {
+            byte[] inline = new byte[inlineLength];
+            in.readFully(inline);
+            in.readInt(); // Aucune partie
+            return new Entry(name, inline, checksum, createdAt);
+        }
+        int partCount = in.readInt();
+        long[] partSizes = new long[partCount];
+        String[][] nodes = new String[partCount][];
+        for (int i = 0; i < partCount; i++) {
+            // Avant la version 4 : un seul sous-serveur par partie
+            nodes[i] = new String[version >= 4 ? in.readUnsignedByte() : 1];
+            for (int r = 0; r < nodes[i].length; r++) {
+                nodes[i][r] = in.readUTF().intern(); // Peu d'adresses distinctes : partagées entre les entrées
+            }
+            partSizes[i] = in.readLong();
+        }
+        return new Entry(name, size, checksum, createdAt, generation, dataShards < 0 ? partCount : dataShards, parityShards,
+                cellSize, partSizes, nodes);
+    }
+
+    // Compte les octets lus pour connaître la fin du dernier enregistrement complet
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
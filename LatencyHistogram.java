@@ -0,0 +1,82 @@
+import java.util.concurrent.atomic.*;
+
+// Histogramme de durées sans verrou, à la manière de HdrHistogram : les valeurs (en
+// microsecondes) sont rangées dans des intervalles dont la largeur double à chaque
+// puissance de deux, chacune découpée en SUB_BUCKETS intervalles égaux (erreur relative
+// d'au plus 1/SUB_BUCKETS). Enregistrer une valeur coûte quelques opérations atomiques.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder(); // Microsecondes
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+        long previous;
+        while (micros > (previous = max.get()) && !max.compareAndSet(previous, micros)) {
+            // Réessayer : un autre thread a relevé le maximum entre-temps
+        }
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    // Somme des durées enregistrées, en microsecondes
+    long sum() {
+        return sum.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    // Durée (microsecondes) sous laquelle se trouve la fraction quantile des valeurs
+    long percentile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max());
+            }
+        }
+        return max();
+    }
+
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros); // >= SUB_BUCKET_BITS
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Plus grande valeur rangée dans l'intervalle index
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
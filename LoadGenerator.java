@@ -0,0 +1,385 @@
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Générateur de charge local : démarre dans ce processus N sous-serveurs et le serveur
+// principal sur des ports libres de l'interface locale (répertoires de stockage temporaires,
+// réglages de config.txt pour le reste), puis fait exécuter par des clients concurrents
+// un mélange de SEND, RECEIVE et LIST sur une distribution de tailles de fichiers.
+// Chaque RECEIVE est vérifié octet par octet. Après un échauffement, le débit et la
+// répartition des durées (p50, p99, p99.9) sont mesurés pour chaque commande ; les mesures
+// des serveurs (Metrics) sont écrites à côté de leur journal dans le répertoire de travail.
+// Usage : java LoadGenerator [sous-serveurs [clients [durée_s [mélange [tailles]]]]]
+//   défaut : 3 8 30 SEND=30,RECEIVE=60,LIST=10 4k=50,1m=35,32m=15
+public class LoadGenerator {
+    private static final String[] COMMANDS = {"SEND", "RECEIVE", "LIST"};
+    private static final int FILES_PER_SIZE = 4;   // Fichiers lus par RECEIVE, par taille
+    private static final int SENT_FILES = 4;       // Fichiers réécrits par SEND, par client
+    private static final int PATTERN_SIZE = 1024 * 1024; // Décalages possibles du contenu des fichiers
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int subServerCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long duration = args.length > 2 ? Long.parseLong(args[2]) : 30;
+        Map<String, Integer> mix = weights(args.length > 3 ? args[3] : "SEND=30,RECEIVE=60,LIST=10");
+        Map<String, Integer> sizeWeights = weights(args.length > 4 ? args[4] : "4k=50,1m=35,32m=15");
+        long warmup = Math.min(5, Math.max(1, duration / 5));
+
+        long[] sizes = new long[sizeWeights.size()];
+        int[] sizeChoices = choices(new ArrayList<>(sizeWeights.values()));
+        int i = 0;
+        for (String size : sizeWeights.keySet()) {
+            sizes[i++] = parseSize(size);
+        }
+        int[] commandChoices = new int[0];
+        for (int c = 0; c < COMMANDS.length; c++) {
+            int weight = mix.getOrDefault(COMMANDS[c], 0);
+            commandChoices = Arrays.copyOf(commandChoices, commandChoices.length + weight);
+            Arrays.fill(commandChoices, commandChoices.length - weight, commandChoices.length, c);
+        }
+        if (commandChoices.length == 0 || sizeChoices.length == 0) {
+            System.err.println("Mélange ou distribution de tailles vide");
+            return;
+        }
+
+        // Contenu des fichiers : tranches d'un même bloc aléatoire, à un décalage propre à chaque nom
+        long maxSize = Arrays.stream(sizes).max().getAsLong();
+        byte[] data = new byte[(int) Math.min(Integer.MAX_VALUE - 8, maxSize + PATTERN_SIZE)];
+        new Random(42).nextBytes(data);
+
+        // Serveurs dans ce processus ; leur journal est redirigé pour ne pas se mêler au rapport
+        File workDir = Files.createTempDirectory("charge").toFile();
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(new FileOutputStream(new File(workDir, "serveurs.log")), true, "UTF-8"));
+        int[] ports = freePorts(subServerCount + 1);
+        File config = writeConfig(workDir, ports);
+        SubServer.loadConfig(config.getPath());
+        for (int s = 0; s < subServerCount; s++) {
+            SubServer subServer = new SubServer(ports[s + 1], new File(workDir, "sous-serveur" + (s + 1)).getPath());
+            startDaemon("sous-serveur-" + (s + 1), subServer::start);
+            awaitPort(ports[s + 1]);
+        }
+        startDaemon("serveur", () -> Server.main(new String[]{config.getPath()}));
+        InetSocketAddress server = new InetSocketAddress(InetAddress.getLoopbackAddress(), ports[0]);
+        awaitServer(server);
+
+        report.printf("%d sous-serveurs, %d clients, %d s (échauffement %d s), répertoire %s%n",
+                subServerCount, clients, duration, warmup, workDir);
+        long setup = System.nanoTime();
+        for (long size : sizes) {
+            for (int f = 0; f < FILES_PER_SIZE; f++) {
+                String name = readName(size, f);
+                if (!send(server, name, data, offset(name), size)) {
+                    throw new IOException("Impossible d'envoyer " + name);
+                }
+            }
+        }
+        report.printf("Fichiers de lecture envoyés en %.1f s%n", (System.nanoTime() - setup) / 1e9);
+
+        AtomicReference<Stats[]> stats = new AtomicReference<>(newStats());
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            int[] commands = commandChoices;
+            workers.add(pool.submit(() -> {
+                Random random = new Random(client);
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                long sent = 0;
+                while (running.get()) {
+                    int command = commands[random.nextInt(commands.length)];
+                    long size = sizes[sizeChoices[random.nextInt(sizeChoices.length)]];
+                    Stats stat = stats.get()[command];
+                    long start = System.nanoTime();
+                    long bytes = -1;
+                    try {
+                        switch (COMMANDS[command]) {
+                            case "SEND":
+                                String name = "envoi-" + client + "-" + (sent++ % SENT_FILES);
+                                bytes = send(server, name, data, offset(name), size) ? size : -1;
+                                break;
+                            case "RECEIVE":
+                                String readName = readName(size, random.nextInt(FILES_PER_SIZE));
+                                bytes = receive(server, readName, data, offset(readName), size, buffer);
+                                break;
+                            default:
+                                bytes = list(server);
+                                break;
+                        }
+                    } catch (IOException e) {
+                        stat.lastError = e.toString();
+                    }
+                    stat.record(System.nanoTime() - start, bytes);
+                }
+                return null;
+            }));
+        }
+
+        Thread.sleep(warmup * 1000);
+        stats.set(newStats());
+        long start = System.nanoTime();
+        Thread.sleep(duration * 1000);
+        Stats[] measured = stats.get();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        pool.shutdown();
+
+        report.printf("%-8s %9s %9s %9s %9s %9s %9s %9s %8s%n",
+                "commande", "requêtes", "req/s", "Mo/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "erreurs");
+        for (int c = 0; c < COMMANDS.length; c++) {
+            Stats stat = measured[c];
+            LatencyHistogram latency = stat.latency;
+            report.printf(Locale.ROOT, "%-8s %9d %9.1f %9.1f %9.2f %9.2f %9.2f %9.2f %8d%n", COMMANDS[c], latency.count(),
+                    latency.count() / seconds, stat.bytes.sum() / seconds / (1024 * 1024), latency.percentile(0.5) / 1e3,
+                    latency.percentile(0.99) / 1e3, latency.percentile(0.999) / 1e3, latency.max() / 1e3, stat.errors.sum());
+            if (stat.lastError != null) {
+                report.println("  dernière erreur : " + stat.lastError);
+            }
+        }
+        Files.writeString(new File(workDir, "metrics.txt").toPath(), Metrics.render());
+        for (File dir : workDir.listFiles(File::isDirectory)) {
+            deleteRecursively(dir);
+        }
+        report.println("Journal et mesures des serveurs : " + workDir);
+        System.exit(0);
+    }
+
+    // Mesures d'une commande pendant la période mesurée
+    private static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        volatile String lastError;
+
+        // bytes < 0 : requête en échec
+        void record(long nanos, long transferred) {
+            if (transferred < 0) {
+                errors.increment();
+            } else {
+                latency.record(nanos);
+                bytes.add(transferred);
+            }
+        }
+    }
+
+    private static Stats[] newStats() {
+        Stats[] stats = new Stats[COMMANDS.length];
+        for (int c = 0; c < stats.length; c++) {
+            stats[c] = new Stats();
+        }
+        return stats;
+    }
+
+    // SEND sur une seule connexion, sans reprise ; vrai si le serveur a enregistré le fichier
+    private static boolean send(InetSocketAddress server, String name, byte[] data, int offset, long size) throws IOException {
+        try (Socket socket = new Socket(server.getAddress(), server.getPort())) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            dos.writeUTF("SEND");
+            dos.writeUTF(name);
+            dos.writeLong(size);
+            dos.writeUTF("");
+            dos.writeInt(1);
+            dos.flush();
+            if (dis.readLong() != 0) {
+                dis.readLong();
+                return false;
+            }
+            dis.readLong();
+            dos.write(data, offset, (int) size);
+            dos.flush();
+            return dis.readBoolean();
+        }
+    }
+
+    // RECEIVE du fichier entier, comparé à son contenu attendu ; octets reçus, -1 en cas d'écart
+    private static long receive(InetSocketAddress server, String name, byte[] data, int offset, long size, byte[] buffer) throws IOException {
+        try (Socket socket = new Socket(server.getAddress(), server.getPort())) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            dos.writeUTF("RECEIVE");
+            dos.writeUTF(name);
+            dos.writeLong(0);
+            dos.writeLong(-1);
+            dos.flush();
+            if (!dis.readBoolean()) {
+                throw new FileNotFoundException(name);
+            }
+            dis.readUTF();
+            long fileSize = dis.readLong();
+            dis.readLong(); // Version
+            dis.readLong();
+            long remaining = dis.readLong();
+            if (fileSize != size || remaining != size) {
+                throw new IOException(name + " : " + remaining + " octets reçus sur " + size);
+            }
+            for (long position = 0; position < remaining; ) {
+                int length = (int) Math.min(buffer.length, remaining - position);
+                dis.readFully(buffer, 0, length);
+                int from = offset + (int) position;
+                if (Arrays.mismatch(buffer, 0, length, data, from, from + length) >= 0) {
+                    throw new IOException(name + " : contenu différent à partir de l'octet " + position);
+                }
+                position += length;
+            }
+            return remaining;
+        }
+    }
+
+    // LIST de tout le catalogue, par pages ; retourne le nombre d'octets de noms reçus
+    private static long list(InetSocketAddress server) throws IOException {
+        long bytes = 0;
+        String cursor = "";
+        do {
+            try (Socket socket = new Socket(server.getAddress(), server.getPort())) {
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                dos.writeUTF("LIST");
+                dos.writeUTF("");
+                dos.writeInt(1000);
+                dos.writeUTF(cursor);
+                dos.flush();
+                while (dis.readBoolean()) {
+                    bytes += dis.readUTF().length() + 8;
+                    dis.readLong();
+                }
+                cursor = dis.readUTF();
+            }
+        } while (!cursor.isEmpty());
+        return bytes;
+    }
+
+    private static String readName(long size, int index) {
+        return "lecture-" + size + "-" + index;
+    }
+
+    private static int offset(String name) {
+        return Math.floorMod(name.hashCode() * 31, PATTERN_SIZE);
+    }
+
+    // Réglages de config.txt (s'il existe), sauf les adresses, ports et répertoires
+    private static File writeConfig(File workDir, int[] ports) throws IOException {
+        String[] replaced = {"PORT", "SERVER_ADDRESS", "SUB_SERVERS", "SUB_SERVER_PORT", "STORAGE_DIR",
+                "CATALOG_FILE", "METRICS_PORT", "SUB_SERVER_METRICS_PORT"};
+        List<String> lines = new ArrayList<>();
+        File base = new File("config.txt");
+        if (base.exists()) {
+            for (String line : Files.readAllLines(base.toPath())) {
+                if (Arrays.stream(replaced).noneMatch(line::startsWith)) {
+                    lines.add(line);
+                }
+            }
+        }
+        lines.add("PORT=" + ports[0]);
+        lines.add("SERVER_ADDRESS=127.0.0.1");
+        lines.add("STORAGE_DIR=" + new File(workDir, "principal").getPath());
+        lines.add("METRICS_PORT=0");
+        lines.add("SUB_SERVER_METRICS_PORT=0");
+        for (int s = 1; s < ports.length; s++) {
+            lines.add("SUB_SERVERS" + s + "=127.0.0.1:" + ports[s]);
+        }
+        File config = new File(workDir, "config.txt");
+        Files.write(config.toPath(), lines);
+        return config;
+    }
+
+    private static int[] freePorts(int count) throws IOException {
+        ServerSocket[] sockets = new ServerSocket[count];
+        int[] ports = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                sockets[i] = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                ports[i] = sockets[i].getLocalPort();
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        return ports;
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Attendre que le sous-serveur accepte les connexions (une connexion fermée sans requête est ignorée)
+    private static void awaitPort(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                new Socket(InetAddress.getLoopbackAddress(), port).close();
+                return;
+            } catch (ConnectException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    // Attendre que le serveur principal réponde à LIST
+    private static void awaitServer(InetSocketAddress server) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                list(server);
+                return;
+            } catch (ConnectException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    // "nom=poids,..." dans l'ordre donné
+    private static Map<String, Integer> weights(String spec) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String item : spec.split(",")) {
+            String[] pair = item.split("=");
+            weights.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    private static int[] choices(List<Integer> weights) {
+        List<Integer> choices = new ArrayList<>();
+        for (int i = 0; i < weights.size(); i++) {
+            for (int w = 0; w < weights.get(i); w++) {
+                choices.add(i);
+            }
+        }
+        return choices.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Taille avec suffixe k, m ou g (puissances de 1024)
+    private static long parseSize(String size) {
+        String value = size.toLowerCase(Locale.ROOT);
+        char unit = value.charAt(value.length() - 1);
+        int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+        return Long.parseLong(shift > 0 ? value.substring(0, value.length() - 1) : value) << shift;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Journal asynchrone : les threads qui traitent les requêtes déposent leurs messages dans
+// une file bornée sans attendre la console ; un thread unique les écrit par lots. Si la
+// file est pleine, le message est abandonné et compté (log_dropped_total) plutôt que de
+// ralentir le transfert en cours. Les messages en attente sont écrits à l'arrêt du processus.
+final class Log {
+    private static final int CAPACITY = 8192;
+    private static final int BATCH_SIZE = 256;
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private static final Thread writer = new Thread(Log::drainForever, "log");
+
+    static {
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    static void info(String message) {
+        if (!queue.offer(message)) {
+            Metrics.counter("log_dropped_total").increment();
+        }
+    }
+
+    private static void drainForever() {
+        try {
+            while (true) {
+                String first = queue.take();
+                StringBuilder batch = new StringBuilder(first).append(System.lineSeparator());
+                write(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void drain() {
+        write(new StringBuilder());
+    }
+
+    // Ajouter au lot les messages en attente, puis l'écrire en une seule fois
+    private static void write(StringBuilder batch) {
+        List<String> pending = new ArrayList<>(BATCH_SIZE);
+        do {
+            pending.clear();
+            queue.drainTo(pending, BATCH_SIZE);
+            for (String message : pending) {
+                batch.append(message).append(System.lineSeparator());
+            }
+            if (batch.length() > 0) {
+                System.out.print(batch);
+                System.out.flush();
+                batch.setLength(0);
+            }
+        } while (!pending.isEmpty());
+    }
+}
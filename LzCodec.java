@@ -0,0 +1,180 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.ByteOrder;
+import java.util.*;
+
+// Codec LZ77 rapide, au format de bloc de LZ4 : suite de séquences
+// [jeton][longueur de littéraux étendue][littéraux][distance sur 2 octets][longueur de copie étendue].
+// Le jeton porte sur 4 bits le nombre de littéraux et sur 4 bits la longueur de copie
+// moins 4 (15 : longueur prolongée par des octets 255... terminés par un octet < 255).
+// La dernière séquence ne contient que des littéraux. Les correspondances sont cherchées
+// par une table de hachage des séquences de 4 octets ; sur des données peu compressibles
+// le pas de recherche augmente au fil des échecs.
+class LzCodec extends Codec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int LAST_LITERALS = 5;  // La fin du bloc est toujours en littéraux
+    private static final int MATCH_SEARCH_END = 12;
+    private static final int HASH_BITS = 14;
+    // Lectures de 4 et 8 octets d'un coup pour le hachage et la comparaison des correspondances
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final int[] table = new int[1 << HASH_BITS];
+
+    @Override
+    String name() {
+        return "lz";
+    }
+
+    @Override
+    byte id() {
+        return 1;
+    }
+
+    @Override
+    int compress(byte[] source, int length, byte[] target, int targetOffset, int limit) {
+        Arrays.fill(table, -1);
+        int end = targetOffset + limit;
+        int output = targetOffset;
+        int anchor = 0;
+        int position = 0;
+        int misses = 0;
+        int searchEnd = length - MATCH_SEARCH_END;
+        while (position < searchEnd) {
+            int sequence = readInt(source, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int reference = table[hash];
+            table[hash] = position;
+            if (reference < 0 || position - reference > MAX_DISTANCE || readInt(source, reference) != sequence) {
+                position += 1 + (misses++ >> 5);
+                continue;
+            }
+            misses = 0;
+            // Prolonger la correspondance vers l'arrière puis vers l'avant
+            while (position > anchor && reference > 0 && source[position - 1] == source[reference - 1]) {
+                position--;
+                reference--;
+            }
+            int matchLength = MIN_MATCH + matchLength(source, reference + MIN_MATCH, position + MIN_MATCH, length - LAST_LITERALS);
+            output = writeSequence(source, anchor, position - anchor, position - reference, matchLength, target, output, end);
+            if (output < 0) {
+                return -1;
+            }
+            position += matchLength;
+            anchor = position;
+        }
+        output = writeSequence(source, anchor, length - anchor, 0, 0, target, output, end);
+        return output < 0 ? -1 : output - targetOffset;
+    }
+
+    // Nombre d'octets identiques à partir de reference et de position, sans dépasser end
+    private static int matchLength(byte[] source, int reference, int position, int end) {
+        int start = position;
+        while (position + 8 <= end) {
+            long difference = (long) LONG.get(source, reference) ^ (long) LONG.get(source, position);
+            if (difference != 0) {
+                return position - start + (Long.numberOfTrailingZeros(difference) >>> 3);
+            }
+            reference += 8;
+            position += 8;
+        }
+        while (position < end && source[reference] == source[position]) {
+            reference++;
+            position++;
+        }
+        return position - start;
+    }
+
+    // Écrire une séquence (matchLength 0 : littéraux de fin) ; -1 si elle dépasse end
+    private static int writeSequence(byte[] source, int literalStart, int literals, int distance, int matchLength,
+                                     byte[] target, int output, int end) {
+        int needed = 1 + literals + literals / 255 + 1 + (matchLength > 0 ? 2 + (matchLength - MIN_MATCH) / 255 + 1 : 0);
+        if (output + needed > end) {
+            return -1;
+        }
+        int matchCode = matchLength > 0 ? matchLength - MIN_MATCH : 0;
+        target[output++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchCode, 15));
+        output = writeLength(literals, target, output);
+        System.arraycopy(source, literalStart, target, output, literals);
+        output += literals;
+        if (matchLength > 0) {
+            target[output++] = (byte) distance;
+            target[output++] = (byte) (distance >>> 8);
+            output = writeLength(matchCode, target, output);
+        }
+        return output;
+    }
+
+    // Prolonger une longueur d'au moins 15 (inscrite dans le jeton) par des octets 255
+    private static int writeLength(int length, byte[] target, int output) {
+        if (length < 15) {
+            return output;
+        }
+        length -= 15;
+        while (length >= 255) {
+            target[output++] = (byte) 255;
+            length -= 255;
+        }
+        target[output++] = (byte) length;
+        return output;
+    }
+
+    @Override
+    void decompress(byte[] source, int sourceOffset, int sourceLength, byte[] target, int targetLength) throws IOException {
+        int input = sourceOffset;
+        int end = sourceOffset + sourceLength;
+        int output = 0;
+        try {
+            while (true) {
+                int token = source[input++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int extra;
+                    do {
+                        extra = source[input++] & 0xFF;
+                        literals += extra;
+                    } while (extra == 255);
+                }
+                System.arraycopy(source, input, target, output, literals);
+                input += literals;
+                output += literals;
+                if (input >= end) {
+                    break;
+                }
+                int distance = (source[input] & 0xFF) | (source[input + 1] & 0xFF) << 8;
+                input += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int extra;
+                    do {
+                        extra = source[input++] & 0xFF;
+                        matchLength += extra;
+                    } while (extra == 255);
+                }
+                matchLength += MIN_MATCH;
+                int reference = output - distance;
+                if (distance == 0 || reference < 0 || output + matchLength > targetLength) {
+                    throw new IOException("Bloc lz invalide : copie hors du bloc");
+                }
+                // La source peut recouvrir la destination : le motif est périodique de période
+                // distance, chaque tranche recopie depuis reference tout ce qui précède (taille doublée)
+                int matchEnd = output + matchLength;
+                while (output < matchEnd) {
+                    int length = Math.min(output - reference, matchEnd - output);
+                    System.arraycopy(target, reference, target, output, length);
+                    output += length;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Bloc lz invalide", e);
+        }
+        if (output != targetLength || input != end) {
+            throw new IOException("Bloc lz invalide : " + output + " octets sur " + targetLength);
+        }
+    }
+
+    private static int readInt(byte[] source, int position) {
+        return (int) INT.get(source, position);
+    }
+}
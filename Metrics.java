@@ -0,0 +1,230 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Mesures du processus : compteurs (LongAdder) et histogrammes de durées sans verrou,
+// jauges lues à la demande. Un nom porte éventuellement des étiquettes, par exemple
+// command_seconds{command="SEND"}. Les mesures sont exposées au format texte de Prometheus
+// sur http://127.0.0.1:METRICS_PORT/metrics et résumées dans le journal toutes les
+// METRICS_SNAPSHOT_INTERVAL secondes (débits calculés depuis le résumé précédent).
+final class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    static LongAdder counter(String name, String... labels) {
+        String key = key(name, labels);
+        LongAdder counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    static LatencyHistogram histogram(String name, String... labels) {
+        String key = key(name, labels);
+        LatencyHistogram histogram = histograms.get(key);
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+
+    static void gauge(String name, LongSupplier value, String... labels) {
+        gauges.put(key(name, labels), value);
+    }
+
+    // Durée, octets reçus et octets envoyés d'une commande traitée par le serveur
+    static void recordCommand(String command, long nanos, long bytesReceived, long bytesSent) {
+        command = command.matches("[A-Z]{1,16}") ? command : "AUTRE"; // Pas d'étiquette arbitraire
+        counter("command_requests_total", "command", command).increment();
+        counter("command_bytes_received_total", "command", command).add(bytesReceived);
+        counter("command_bytes_sent_total", "command", command).add(bytesSent);
+        histogram("command_seconds", "command", command).record(nanos);
+    }
+
+    // Démarrer le point d'accès HTTP (port 0 : aucun) et les résumés périodiques (0 : aucun)
+    static void start(int port, long snapshotIntervalSeconds) {
+        if (port > 0) {
+            try {
+                HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                server.createContext("/metrics", exchange -> {
+                    byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "metrics-http");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+                server.start();
+                Log.info("Mesures disponibles sur http://127.0.0.1:" + port + "/metrics");
+            } catch (IOException e) {
+                System.err.println("Erreur lors de l'ouverture du port des mesures " + port + " : " + e.getMessage());
+            }
+        }
+        if (snapshotIntervalSeconds > 0) {
+            ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            Map<String, Long> previous = new HashMap<>();
+            long[] last = {System.nanoTime()};
+            snapshots.scheduleWithFixedDelay(() -> {
+                long now = System.nanoTime();
+                Log.info(snapshot(previous, (now - last[0]) / 1e9));
+                last[0] = now;
+            }, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    // Toutes les mesures au format texte de Prometheus (durées en secondes)
+    static String render() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            out.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            out.append(gauge.getKey()).append(' ').append(gauge.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            String key = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            for (double quantile : QUANTILES) {
+                out.append(withLabel(key, "quantile", Double.toString(quantile))).append(' ')
+                        .append(seconds(histogram.percentile(quantile))).append('\n');
+            }
+            out.append(withSuffix(key, "_count")).append(' ').append(histogram.count()).append('\n');
+            out.append(withSuffix(key, "_sum")).append(' ').append(seconds(histogram.sum())).append('\n');
+            out.append(withSuffix(key, "_max")).append(' ').append(seconds(histogram.max())).append('\n');
+        }
+        return out.toString();
+    }
+
+    // Résumé sur une ligne des compteurs et histogrammes qui ont changé depuis le précédent
+    private static String snapshot(Map<String, Long> previous, double elapsedSeconds) {
+        StringBuilder out = new StringBuilder("Mesures :");
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            long value = counter.getValue().sum();
+            long delta = value - previous.getOrDefault(counter.getKey(), 0L);
+            previous.put(counter.getKey(), value);
+            if (delta != 0) {
+                out.append(' ').append(counter.getKey()).append('=').append(value)
+                        .append(String.format(Locale.ROOT, " (%.1f/s)", delta / elapsedSeconds)).append(',');
+            }
+        }
+        for (Map.Entry<String, LongSupplier> gauge : new TreeMap<>(gauges).entrySet()) {
+            out.append(' ').append(gauge.getKey()).append('=').append(gauge.getValue().getAsLong()).append(',');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            String key = "histogram:" + entry.getKey();
+            long count = histogram.count();
+            if (count != previous.getOrDefault(key, 0L)) {
+                previous.put(key, count);
+                out.append(String.format(Locale.ROOT, " %s n=%d p50=%.1fms p99=%.1fms max=%.1fms,", entry.getKey(), count,
+                        histogram.percentile(0.5) / 1e3, histogram.percentile(0.99) / 1e3, histogram.max() / 1e3));
+            }
+        }
+        out.setLength(out.length() - (out.charAt(out.length() - 1) == ',' ? 1 : 0));
+        return out.toString();
+    }
+
+    private static String key(String name, String... labels) {
+        if (labels.length == 0) {
+            return name;
+        }
+        StringBuilder key = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return key.append('}').toString();
+    }
+
+    private static String withLabel(String key, String label, String value) {
+        String pair = label + "=\"" + value + "\"";
+        return key.endsWith("}") ? key.substring(0, key.length() - 1) + "," + pair + "}" : key + "{" + pair + "}";
+    }
+
+    private static String withSuffix(String key, String suffix) {
+        int labels = key.indexOf('{');
+        return labels < 0 ? key + suffix : key.substring(0, labels) + suffix + key.substring(labels);
+    }
+
+    private static String seconds(long micros) {
+        return Double.toString(micros / 1e6);
+    }
+
+    // Flux qui comptent les octets qui les traversent (utilisés par un seul thread à la fois)
+    static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
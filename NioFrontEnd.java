@@ -0,0 +1,288 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+// Frontal événementiel du serveur principal (Selector + canaux non bloquants).
+// Un thread d'acceptation répartit les connexions entre quelques threads d'E/S qui
+// décodent l'en-tête des requêtes (trame writeUTF de la commande et ses arguments)
+// sans bloquer : un client inactif ou lent n'occupe aucun thread tant que sa requête
+// n'est pas complète.
+// Les requêtes courtes (LIST, STATS, RECEIVE d'un fichier gardé dans le catalogue) sont
+// traitées directement par le thread d'E/S, de même que le SEND d'un petit fichier : la
+// réponse intermédiaire est écrite et le corps lu sans bloquer avant le traitement (body).
+// Les autres transferts (SEND et RECEIVE de fichiers répartis sur les sous-serveurs,
+// SEGMENT, DELETE), les lots (BATCH) et les connexions compressées (CODEC) repassent en
+// mode bloquant et sont confiés au pool de connexions avec les octets déjà lus : chacun
+// occupe alors un thread du pool (MAX_IN_FLIGHT) pendant toute sa durée, et ce mode ne
+// réduit pas le nombre de threads nécessaires aux transferts concurrents de gros fichiers.
+class NioFrontEnd {
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final int MAX_HEADER_SIZE = 3 * (2 + 65535) + 16; // Commande et arguments
+
+    private final InetSocketAddress address;
+    private final int backlog;
+    private final Reactor[] reactors;
+    private final ConnectionExecutor executor;
+    private final Function<byte[], byte[]> inlineHandler;
+    private final Function<byte[], Body> bodyHandler;
+    private final BiConsumer<Socket, byte[]> blockingHandler;
+
+    // Corps d'une requête lu par le thread d'E/S : réponse intermédiaire envoyée après
+    // l'en-tête, puis length octets attendus avant de traiter la requête
+    static final class Body {
+        final byte[] reply;
+        final int length;
+
+        Body(byte[] reply, int length) {
+            this.reply = reply;
+            this.length = length;
+        }
+    }
+
+    // inlineHandler : réponse complète à une requête courte (en-tête suivi de son corps éventuel),
+    // ou null pour la confier à blockingHandler ; bodyHandler : corps à lire avant de traiter
+    // la requête dont l'en-tête est donné, ou null s'il n'y en a pas
+    NioFrontEnd(InetSocketAddress address, int backlog, int ioThreads, ConnectionExecutor executor,
+                Function<byte[], byte[]> inlineHandler, Function<byte[], Body> bodyHandler,
+                BiConsumer<Socket, byte[]> blockingHandler) throws IOException {
+        this.address = address;
+        this.backlog = backlog;
+        this.executor = executor;
+        this.inlineHandler = inlineHandler;
+        this.bodyHandler = bodyHandler;
+        this.blockingHandler = blockingHandler;
+        this.reactors = new Reactor[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            reactors[i] = new Reactor();
+            Thread thread = new Thread(reactors[i], "nio-io-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Boucle d'acceptation (bloque le thread appelant)
+    void start() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             Selector selector = Selector.open()) {
+            serverChannel.bind(address, backlog);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            Log.info("Serveur principal (NIO, " + reactors.length + " threads d'E/S) en attente de connexions sur le port " + address.getPort());
+
+            int next = 0;
+            while (true) {
+                selector.select();
+                selector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    reactors[next].register(channel);
+                    next = (next + 1) % reactors.length;
+                }
+            }
+        }
+    }
+
+    // Longueur de l'en-tête de requête contenu dans buffer (position 0 à limit),
+    // ou -1 s'il n'est pas encore complet
+    static int headerLength(ByteBuffer buffer) {
+        int position = skipUTF(buffer, 0);
+        if (position < 0) {
+            return -1;
+        }
+        switch (readUTF(buffer, 0)) {
+            case "LIST":
+                position = skipUTF(buffer, position);
+                return position < 0 || position + 4 > buffer.limit() ? -1 : skipUTF(buffer, position + 4);
+            case "SEND":
+                position = skipUTF(buffer, position);
+                position = position < 0 || position + 8 > buffer.limit() ? -1 : skipUTF(buffer, position + 8);
+                return position < 0 || position + 4 > buffer.limit() ? -1 : position + 4;
+            case "RECEIVE":
+            case "SEGMENT":
+                position = skipUTF(buffer, position);
+                return position < 0 || position + 16 > buffer.limit() ? -1 : position + 16;
+            case "DELETE":
+            case "CODEC":
+                return skipUTF(buffer, position);
+            default:
+                return position;
+        }
+    }
+
+    private static int skipUTF(ByteBuffer buffer, int position) {
+        if (position + 2 > buffer.limit()) {
+            return -1;
+        }
+        int end = position + 2 + (buffer.getShort(position) & 0xFFFF);
+        return end > buffer.limit() ? -1 : end;
+    }
+
+    private static String readUTF(ByteBuffer buffer, int position) {
+        byte[] frame = new byte[skipUTF(buffer, position) - position];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = buffer.get(position + i);
+        }
+        try {
+            return new DataInputStream(new ByteArrayInputStream(frame)).readUTF();
+        } catch (IOException e) {
+            return ""; // Trame invalide : traitée comme une commande inconnue
+        }
+    }
+
+    // État d'une connexion suivie par un thread d'E/S
+    private static final class Connection {
+        ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        ByteBuffer output;
+        int expected = -1;     // Longueur de l'en-tête et du corps à lire (-1 : pas de corps annoncé)
+        boolean closeAfterWrite;
+    }
+
+    private final class Reactor implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Map<SocketChannel, byte[]> handOffs = new HashMap<>();
+
+        Reactor() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection());
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isReadable()) {
+                                read(key);
+                            } else if (key.isWritable()) {
+                                write(key);
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            close(key.channel());
+                        }
+                    }
+                    if (!handOffs.isEmpty()) {
+                        handOff();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            if (!connection.input.hasRemaining()) {
+                int maxSize = Math.max(MAX_HEADER_SIZE, connection.expected);
+                if (connection.input.capacity() >= maxSize) {
+                    throw new IOException("En-tête de requête trop long");
+                }
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(connection.input.capacity() * 2L, maxSize));
+                connection.input.flip();
+                larger.put(connection.input);
+                connection.input = larger;
+            }
+            if (channel.read(connection.input) == -1) {
+                close(channel);
+                return;
+            }
+
+            ByteBuffer received = connection.input.duplicate();
+            received.flip();
+            if (connection.expected < 0) {
+                int headerLength = headerLength(received);
+                if (headerLength < 0) {
+                    return; // En-tête incomplet : attendre la suite
+                }
+                byte[] header = new byte[headerLength];
+                received.duplicate().get(header);
+                Body body = bodyHandler.apply(header);
+                if (body != null) {
+                    // Réponse intermédiaire, puis lecture du corps sans bloquer
+                    connection.expected = headerLength + body.length;
+                    reply(key, body.reply, false);
+                }
+            }
+            if (connection.expected >= 0 && received.remaining() < connection.expected) {
+                return; // Corps incomplet : attendre la suite
+            }
+            byte[] request = new byte[received.remaining()];
+            received.get(request);
+
+            byte[] response = inlineHandler.apply(request);
+            if (response != null) {
+                reply(key, response, true);
+            } else if (connection.expected >= 0) {
+                // La réponse intermédiaire est partie : la requête ne peut plus être confiée au pool
+                throw new IOException("Requête non traitée après lecture de son corps");
+            } else {
+                key.cancel();
+                handOffs.put(channel, request);
+            }
+        }
+
+        private void reply(SelectionKey key, byte[] response, boolean closeAfterWrite) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            connection.output = ByteBuffer.wrap(response);
+            connection.closeAfterWrite = closeAfterWrite;
+            key.interestOps(SelectionKey.OP_WRITE);
+            write(key);
+        }
+
+        private void write(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            channel.write(connection.output);
+            if (!connection.output.hasRemaining()) {
+                if (connection.closeAfterWrite) {
+                    close(channel);
+                } else if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        // Repasser les connexions en mode bloquant et les confier au pool de connexions
+        private void handOff() throws IOException {
+            selector.selectNow(); // Désenregistrer effectivement les canaux annulés
+            for (Map.Entry<SocketChannel, byte[]> entry : handOffs.entrySet()) {
+                SocketChannel channel = entry.getKey();
+                byte[] request = entry.getValue();
+                try {
+                    channel.configureBlocking(true);
+                    executor.submit(channel.socket(), socket -> blockingHandler.accept(socket, request));
+                } catch (IOException e) {
+                    close(channel);
+                }
+            }
+            handOffs.clear();
+        }
+
+        private void close(SelectableChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Connexion déjà fermée
+            }
+        }
+    }
+}
@@ -0,0 +1,408 @@
+import java.io.*;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+// Récupération en tâche de fond d'une partie de fichier (ou d'une plage de celle-ci) depuis un sous-serveur.
+// Les blocs reçus sont mis en attente dans une file bornée : la mémoire utilisée
+// par partie est limitée et le sous-serveur est ralenti tant que la file est pleine.
+// Le sous-serveur annonce avant les données les sommes de contrôle des blocs de la plage,
+// avec lesquelles le lecteur vérifie chaque bloc reçu (verify).
+// Les blocs sont des tampons de BufferPool, rendus dès que le lecteur les a consommés.
+// Une partie répliquée est demandée au réplica le plus rapide (SubServerPool.byResponseTime) ;
+// sans réponse au bout du délai de secours (hedgeDelayNanos), la même requête est envoyée au
+// réplica suivant et la première réponse reçue est retenue, les autres requêtes étant
+// abandonnées. Un réplica en erreur ou qui n'a pas la partie est aussitôt remplacé par le suivant.
+// Un réplica qui échoue ou reste muet (délai de lecture du pool) après avoir commencé à
+// envoyer les données est remplacé de même : la suite de la plage est demandée au réplica
+// suivant (resume), les blocs déjà reçus restant valables.
+class PartFetch implements Closeable {
+    private static final int CHUNK_SIZE = 1024 * 1024; // Blocs de 1 Mo
+    private static final int MAX_PENDING_CHUNKS = 4;   // Au plus 4 Mo en avance par partie
+    private static final ByteBuffer END_OF_PART = ByteBuffer.allocate(0);
+
+    private final String fileName;
+    private final long offset;
+    private final long length; // -1 : jusqu'à la fin de la partie
+    private final String[] replicas; // Sous-serveurs détenant la partie, du plus rapide au plus lent
+    private final SubServerPool pool;
+    private final ExecutorService executor;
+    private final CompletableFuture<Long> size = new CompletableFuture<>();
+    private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+    private final Future<?> task;
+    private ByteBuffer current; // Bloc en cours de lecture par readFully
+    private final Set<SubServerPool.Connection> attempts = new HashSet<>(); // Requêtes en concurrence
+    private boolean decided;             // Réponse retenue : les autres requêtes sont abandonnées
+    private SubServerPool.Connection connection;
+    private volatile String subServerAddress; // Réplica retenu
+    private volatile int blockSize;     // 0 : pas de sommes de contrôle
+    private volatile byte[] checksums;  // CRC32C des blocs de la plage, 4 octets chacun
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    PartFetch(String fileName, long offset, long length, String[] replicas, SubServerPool pool, ExecutorService executor) {
+        this.fileName = fileName;
+        this.offset = offset;
+        this.length = length;
+        this.replicas = pool.byResponseTime(replicas);
+        this.pool = pool;
+        this.executor = executor;
+        this.task = executor.submit(this::fetch);
+    }
+
+    // Taille de la plage reçue, disponible dès réception de l'en-tête du sous-serveur
+    long size() throws IOException {
+        try {
+            return size.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Partie manquante : " + fileName, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Récupération interrompue : " + fileName);
+        }
+    }
+
+    // Achevé dès réception de l'en-tête du sous-serveur (en erreur si la partie est absente)
+    CompletableFuture<Long> sizeFuture() {
+        return size;
+    }
+
+    // Lire exactement length octets de la partie
+    void readFully(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (current != null && !current.hasRemaining()) {
+                BufferPool.release(current.array());
+                current = null;
+            }
+            if (current == null) {
+                current = nextChunk();
+            }
+            int count = Math.min(length, current.remaining());
+            current.get(buffer, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    // Vérifier les length octets lus à la position partOffset de la partie : faux si ce bloc a
+    // une somme de contrôle et qu'elle ne correspond pas. La taille doit avoir été obtenue.
+    boolean verify(long partOffset, byte[] buffer, int length) {
+        long position = partOffset - offset;
+        if (blockSize == 0 || length == 0 || position < 0 || position % blockSize != 0) {
+            return true;
+        }
+        long index = position / blockSize;
+        if (index >= checksums.length / 4) {
+            return true;
+        }
+        int i = (int) index * 4;
+        int expected = (checksums[i] & 0xFF) << 24 | (checksums[i + 1] & 0xFF) << 16
+                | (checksums[i + 2] & 0xFF) << 8 | (checksums[i + 3] & 0xFF);
+        CRC32C checksum = new CRC32C();
+        checksum.update(buffer, 0, length);
+        if ((int) checksum.getValue() != expected) {
+            pool.failed(subServerAddress); // Redemander la partie à un autre réplica
+            return false;
+        }
+        return true;
+    }
+
+    private ByteBuffer nextChunk() throws IOException {
+        try {
+            ByteBuffer chunk = chunks.take();
+            if (chunk == END_OF_PART) {
+                chunks.offer(END_OF_PART); // Les lectures suivantes échouent aussi
+                throw failure != null ? failure : new EOFException("Fin de la partie " + fileName);
+            }
+            return chunk;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Récupération interrompue : " + fileName);
+        }
+    }
+
+    // Transmettre la partie au flux de sortie au fur et à mesure de sa réception
+    void transferTo(OutputStream out) throws IOException {
+        try {
+            ByteBuffer chunk;
+            while ((chunk = chunks.take()) != END_OF_PART) {
+                out.write(chunk.array(), 0, chunk.limit());
+                BufferPool.release(chunk.array());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Récupération interrompue : " + fileName);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (connection != null) {
+                connection.close(); // Débloquer la lecture en cours
+            }
+            for (SubServerPool.Connection attempt : attempts) {
+                attempt.close();
+            }
+        }
+        task.cancel(true);
+    }
+
+    private void fetch() {
+        boolean complete = false;
+        try {
+            Response response = firstResponse();
+            long remaining = response.size;
+            checksums = response.checksums;
+            blockSize = response.blockSize;
+            size.complete(remaining);
+
+            long position = offset;
+            Set<String> failed = new HashSet<>();
+            while (remaining > 0) {
+                DataInputStream dis = connection.in;
+                LongAdder received = Metrics.counter("subserver_bytes_received_total", "node", subServerAddress);
+                try {
+                    while (remaining > 0) {
+                        int length = (int) Math.min(CHUNK_SIZE, remaining);
+                        byte[] chunk = BufferPool.acquire(length);
+                        dis.readFully(chunk, 0, length);
+                        received.add(length);
+                        chunks.put(ByteBuffer.wrap(chunk, 0, length));
+                        position += length;
+                        remaining -= length;
+                    }
+                } catch (IOException e) {
+                    if (closed) {
+                        throw e;
+                    }
+                    pool.failed(subServerAddress);
+                    failed.add(subServerAddress);
+                    finish(false);
+                    resume(position, remaining, failed, e);
+                }
+            }
+            complete = true;
+            Log.info("Partie " + fileName + " récupérée depuis " + subServerAddress);
+        } catch (IOException e) {
+            Log.info("Erreur lors de la récupération de la partie " + fileName + " : " + e.getMessage());
+            if (subServerAddress != null && !closed) {
+                pool.failed(subServerAddress); // Préférer les autres réplicas à la prochaine lecture
+            }
+            failure = e;
+            size.completeExceptionally(e);
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Récupération interrompue : " + fileName);
+            size.completeExceptionally(failure);
+            return;
+        } finally {
+            finish(complete);
+        }
+        try {
+            chunks.put(END_OF_PART);
+        } catch (InterruptedException e) {
+            // Récupération abandonnée par le consommateur
+        }
+    }
+
+    // Réponse du premier réplica qui annonce la partie : le réplica le plus rapide est
+    // interrogé, puis le suivant dès qu'un réplica échoue ou tarde plus que le délai de secours.
+    // La connexion retenue devient celle de la récupération, les autres sont fermées.
+    private Response firstResponse() throws IOException, InterruptedException {
+        CompletionService<Response> responses = new ExecutorCompletionService<>(executor);
+        long hedgeDelay = pool.hedgeDelayNanos(replicas[0]);
+        long start = System.nanoTime();
+        int started = 0;
+        int pending = 0;
+        IOException error = null;
+        try {
+            String first = replicas[started++];
+            responses.submit(() -> request(first, offset, length));
+            pending++;
+            while (pending > 0) {
+                Future<Response> done = hedgeDelay > 0 && started < replicas.length
+                        ? responses.poll(hedgeDelay, TimeUnit.NANOSECONDS)
+                        : responses.take();
+                if (done == null) {
+                    String hedge = replicas[started++];
+                    Log.info("Pas de réponse pour " + fileName + " après " + hedgeDelay / 1000000 + " ms, requête de secours à " + hedge);
+                    Metrics.counter("hedged_requests_total").increment();
+                    responses.submit(() -> request(hedge, offset, length));
+                    pending++;
+                    continue;
+                }
+                pending--;
+                try {
+                    Response response = done.get();
+                    if (response.size >= 0) {
+                        if (!response.node.equals(replicas[0])) {
+                            // Le réplica préféré est au moins aussi lent que ce qu'il a fait attendre
+                            pool.observe(replicas[0], System.nanoTime() - start);
+                            Metrics.counter("replica_reads_total", "replica", "secondary").increment();
+                        } else {
+                            Metrics.counter("replica_reads_total", "replica", "primary").increment();
+                        }
+                        choose(response);
+                        return response;
+                    }
+                    error = new FileNotFoundException(fileName + " absent de " + response.node);
+                } catch (ExecutionException e) {
+                    error = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+                if (pending == 0 && started < replicas.length) {
+                    String next = replicas[started++];
+                    Log.info("Partie " + fileName + " demandée à " + next + " : " + error.getMessage());
+                    responses.submit(() -> request(next, offset, length));
+                    pending++;
+                }
+            }
+            throw error;
+        } finally {
+            abandon();
+        }
+    }
+
+    // Suite de la plage (count octets à partir de position) après l'échec du réplica retenu :
+    // demandée aux réplicas qui n'ont pas encore échoué, dans l'ordre, sans requête de secours
+    private void resume(long position, long count, Set<String> failed, IOException error) throws IOException {
+        for (String node : replicas) {
+            if (failed.contains(node)) {
+                continue;
+            }
+            Log.info("Reprise de " + fileName + " à l'octet " + position + " depuis " + node + " : " + error.getMessage());
+            synchronized (this) {
+                decided = false;
+            }
+            try {
+                Response response = request(node, position, count);
+                if (response.size == count) {
+                    choose(response);
+                    Metrics.counter("replica_resumed_reads_total").increment();
+                    return;
+                }
+                error = response.size < 0 ? new FileNotFoundException(fileName + " absent de " + node)
+                        : new IOException("Taille inattendue de " + fileName + " sur " + node + " : " + response.size);
+            } catch (IOException e) {
+                if (closed) {
+                    throw e;
+                }
+                error = e;
+            } finally {
+                abandon();
+            }
+            failed.add(node);
+        }
+        throw error;
+    }
+
+    // Envoyer la requête RETRIEVE (count octets à partir de position, -1 : jusqu'à la fin)
+    // à un réplica et lire la taille annoncée (-1 si la partie est absente) puis les sommes
+    // de contrôle des blocs.
+    // Une connexion du pool peut avoir été fermée pendant son inactivité : la requête
+    // est alors rejouée une fois sur une nouvelle connexion. Un réplica resté muet
+    // (SocketTimeoutException) n'est pas relancé.
+    private Response request(String node, long position, long count) throws IOException {
+        while (true) {
+            SubServerPool.Connection c = pool.acquire(node);
+            synchronized (this) {
+                if (closed || decided) {
+                    c.close();
+                    throw new InterruptedIOException("Récupération abandonnée : " + fileName);
+                }
+                attempts.add(c);
+            }
+            try {
+                int requestId = c.begin("RETRIEVE");
+                c.out.writeUTF(fileName);
+                c.out.writeLong(position);
+                c.out.writeLong(count);
+                c.out.flush();
+                c.expect(requestId);
+                long size = c.in.readLong();
+                if (size < 0) {
+                    if (detach(c)) {
+                        pool.release(c);
+                    }
+                    pool.failed(node);
+                    return new Response(node, null, size, 0, null);
+                }
+                int checksumBlockSize = c.in.readInt();
+                byte[] blockChecksums = new byte[c.in.readInt() * 4];
+                c.in.readFully(blockChecksums);
+                return new Response(node, c, size, checksumBlockSize, blockChecksums);
+            } catch (IOException e) {
+                if (!detach(c)) {
+                    throw e; // Requête abandonnée : sa connexion a été fermée
+                }
+                pool.discard(c);
+                if (!c.wasReused() || e instanceof SocketTimeoutException) {
+                    pool.failed(node);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Retirer une connexion des requêtes en concurrence ; faux si elle a été abandonnée
+    private synchronized boolean detach(SubServerPool.Connection c) {
+        return attempts.remove(c) && !closed;
+    }
+
+    // Retenir la réponse dont la connexion portera les données
+    private synchronized void choose(Response response) throws IOException {
+        attempts.remove(response.connection);
+        if (closed) {
+            response.connection.close();
+            throw new InterruptedIOException("Récupération interrompue : " + fileName);
+        }
+        connection = response.connection;
+        subServerAddress = response.node;
+    }
+
+    // Fermer les connexions des requêtes qui n'ont pas été retenues
+    private synchronized void abandon() {
+        decided = true;
+        for (SubServerPool.Connection attempt : attempts) {
+            attempt.close();
+        }
+        attempts.clear();
+    }
+
+    // Rendre la connexion au pool si la réponse a été entièrement lue, sinon la fermer
+    private synchronized void finish(boolean reusable) {
+        if (connection == null) {
+            return;
+        }
+        if (reusable && !closed) {
+            pool.release(connection);
+        } else if (closed) {
+            connection.close();
+        } else {
+            pool.discard(connection);
+        }
+        connection = null;
+    }
+
+    private static final class Response {
+        final String node;
+        final SubServerPool.Connection connection; // null si la partie est absente
+        final long size;
+        final int blockSize;
+        final byte[] checksums;
+
+        Response(String node, SubServerPool.Connection connection, long size, int blockSize, byte[] checksums) {
+            this.node = node;
+            this.connection = connection;
+            this.size = size;
+            this.blockSize = blockSize;
+            this.checksums = checksums;
+        }
+    }
+}
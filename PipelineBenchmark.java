@@ -0,0 +1,257 @@
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+// Micro-benchmark des étapes du serveur principal sur un cœur, sans réseau :
+// découpage d'un fichier reçu en rangées (lecture des cellules, sommes de contrôle, parité),
+// assemblage des parties (vérification des cellules, reconstruction, écriture de la plage),
+// boucle de recopie d'un fichier vers un flux selon la taille du tampon, et tramage des
+// requêtes aux sous-serveurs (en-têtes écrits et relus, avec ou sans tampon).
+// Chaque mesure est précédée d'un échauffement ; le meilleur de RUNS passages est retenu.
+// Le transfert complet, sous-serveurs compris, est mesuré par LoadGenerator.
+// Usage : java PipelineBenchmark [taille_en_Mo [k m taille_cellule]]   (défaut : 64 3 2 1048576)
+public class PipelineBenchmark {
+    private static final int RUNS = 5;
+    private static final int FRAMES = 100000; // Requêtes par passage de tramage
+    private static volatile long sink;        // Résultats consommés, pour que le JIT ne supprime rien
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 64) * 1024 * 1024;
+        int dataShards = args.length > 2 ? Integer.parseInt(args[1]) : 3;
+        int parityShards = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int cellSize = args.length > 3 ? Integer.parseInt(args[3]) : 1024 * 1024;
+        byte[] file = new byte[size];
+        new Random(42).nextBytes(file);
+        StripeLayout layout = new StripeLayout(size, dataShards, parityShards, cellSize);
+        ErasureCoder coder = new ErasureCoder(dataShards, parityShards);
+
+        System.out.printf("Fichier de %,d octets, codage %d+%d, cellules de %,d octets%n", size, dataShards, parityShards, cellSize);
+        report("  découpage           ", size, () -> sink = split(file, layout, coder).length);
+
+        byte[][] parts = split(file, layout, coder);
+        int[][] checksums = checksums(parts, layout);
+        for (int lost = 0; lost <= Math.min(dataShards, parityShards); lost += Math.max(1, Math.min(dataShards, parityShards))) {
+            int lostShards = lost;
+            CheckedOutputStream out = new CheckedOutputStream();
+            assemble(parts, checksums, layout, coder, lostShards, out);
+            if (out.checksum() != checksum(file)) {
+                throw new IllegalStateException("Fichier mal assemblé (" + lost + " parties perdues)");
+            }
+            report(String.format("  assemblage, %d perdue%s", lost, lost > 1 ? "s" : " "), size,
+                    () -> assemble(parts, checksums, layout, coder, lostShards, new CheckedOutputStream()));
+        }
+
+        File temp = File.createTempFile("bench", ".bin");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(temp)) {
+                fos.write(file);
+            }
+            for (int bufferSize : new int[]{4 * 1024, 64 * 1024, 1024 * 1024}) {
+                report(String.format("  recopie, %4d Ko    ", bufferSize / 1024), size, () -> copy(temp, bufferSize));
+            }
+        } finally {
+            temp.delete();
+        }
+
+        System.out.printf("Tramage de %,d requêtes RETRIEVE (en-tête de la requête et de la réponse)%n", FRAMES);
+        frame("  sans tampon ", false);
+        frame("  tampon 64 Ko", true);
+    }
+
+    private interface Run {
+        void run() throws IOException;
+    }
+
+    private static void report(String label, long bytes, Run run) throws IOException {
+        run.run(); // Échauffement
+        run.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%s %10.3f ms  %10.1f Mo/s%n", label, best / 1e6, bytes / (best / 1e9) / (1024 * 1024));
+    }
+
+    // Comme Server.sendWindow : lire chaque rangée de k cellules, calculer la somme de contrôle
+    // du fichier et celle de chaque cellule, coder la parité et ranger les cellules dans les parties
+    private static byte[][] split(byte[] file, StripeLayout layout, ErasureCoder coder) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(file));
+        byte[][] parts = new byte[layout.shardCount()][];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new byte[(int) layout.shardLength(i)];
+        }
+        CRC32C fileChecksum = new CRC32C();
+        byte[][] cells = new byte[layout.dataShards][];
+        byte[][] parity = new byte[layout.parityShards][];
+        long checksums = 0;
+        for (long row = 0; row < layout.rows(); row++) {
+            int rowLength = layout.cellLength(row, 0);
+            for (int j = 0; j < cells.length; j++) {
+                cells[j] = new byte[rowLength];
+                int length = layout.cellLength(row, j);
+                dis.readFully(cells[j], 0, length);
+                fileChecksum.update(cells[j], 0, length);
+            }
+            for (int p = 0; p < parity.length; p++) {
+                parity[p] = new byte[rowLength];
+            }
+            coder.encode(cells, parity, rowLength);
+            int offset = (int) layout.shardOffset(row);
+            for (int i = 0; i < parts.length; i++) {
+                byte[] cell = i < cells.length ? cells[i] : parity[i - cells.length];
+                int length = layout.cellLength(row, i);
+                checksums += checksum(cell, length);
+                System.arraycopy(cell, 0, parts[i], offset, length);
+            }
+        }
+        sink = checksums + fileChecksum.getValue();
+        return parts;
+    }
+
+    // Comme StripeReader.transferTo : lire les cellules des parties retenues (les lost premières
+    // parties de données étant remplacées par la parité), les vérifier, reconstruire la rangée
+    // si nécessaire et l'écrire
+    private static void assemble(byte[][] parts, int[][] checksums, StripeLayout layout, ErasureCoder coder,
+                                 int lost, OutputStream out) throws IOException {
+        int[] chosen = new int[layout.dataShards];
+        DataInputStream[] inputs = new DataInputStream[layout.dataShards];
+        for (int j = 0; j < chosen.length; j++) {
+            chosen[j] = j < lost ? layout.dataShards + j : j;
+            inputs[j] = new DataInputStream(new ByteArrayInputStream(parts[chosen[j]]));
+        }
+        ErasureCoder.Decoder decoder = coder.decoder(chosen);
+        byte[][] available = new byte[layout.dataShards][layout.cellSize];
+        byte[][] data = new byte[layout.dataShards][];
+        for (int j = 0; j < data.length; j++) {
+            // Seules les parties de données absentes sont reconstruites, les autres sont lues telles quelles
+            data[j] = chosen[j] == j ? available[j] : new byte[layout.cellSize];
+        }
+        for (long row = 0; row < layout.rows(); row++) {
+            int rowLength = layout.cellLength(row, 0);
+            for (int j = 0; j < chosen.length; j++) {
+                int length = layout.cellLength(row, chosen[j]);
+                inputs[j].readFully(available[j], 0, length);
+                if (checksum(available[j], length) != checksums[chosen[j]][(int) row]) {
+                    throw new IOException("somme de contrôle incorrecte à la rangée " + row);
+                }
+                Arrays.fill(available[j], length, rowLength, (byte) 0);
+            }
+            if (!decoder.isIdentity()) {
+                decoder.decode(available, data, rowLength);
+            }
+            for (int j = 0; j < layout.dataShards; j++) {
+                out.write(data[j], 0, layout.cellLength(row, j));
+            }
+        }
+    }
+
+    private static int[][] checksums(byte[][] parts, StripeLayout layout) {
+        int[][] checksums = new int[parts.length][(int) layout.rows()];
+        for (int i = 0; i < parts.length; i++) {
+            for (long row = 0; row < layout.rows(); row++) {
+                byte[] cell = Arrays.copyOfRange(parts[i], (int) layout.shardOffset(row),
+                        (int) layout.shardOffset(row) + layout.cellLength(row, i));
+                checksums[i][(int) row] = checksum(cell, cell.length);
+            }
+        }
+        return checksums;
+    }
+
+    // Boucle de lecture et d'écriture par tampon, comme les anciens transferts par flux
+    private static void copy(File file, int bufferSize) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            OutputStream out = OutputStream.nullOutputStream();
+            byte[] buffer = new byte[bufferSize];
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+        }
+    }
+
+    // Écrire puis relire FRAMES requêtes RETRIEVE et leurs en-têtes de réponse ; sans tampon,
+    // chaque champ est une écriture distincte sur le flux (un appel système sur une socket)
+    private static void frame(String label, boolean buffered) throws IOException {
+        long[] writes = new long[1];
+        Run run = () -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(FRAMES * 64);
+            OutputStream target = new FilterOutputStream(bytes) {
+                @Override
+                public void write(int b) throws IOException {
+                    writes[0]++;
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    writes[0]++;
+                    out.write(b, off, len);
+                }
+            };
+            DataOutputStream dos = new DataOutputStream(buffered ? new BufferedOutputStream(target, 64 * 1024) : target);
+            for (int i = 0; i < FRAMES; i++) {
+                dos.writeUTF("RETRIEVE");
+                dos.writeInt(i);
+                dos.writeUTF("fichier-" + (i & 1023) + ".bin_part" + (i % 5 + 1));
+                dos.writeLong((long) i * 4096);
+                dos.writeLong(-1);
+                dos.writeInt(i);
+                dos.writeLong(4096);
+                dos.writeInt(0);
+                dos.writeInt(0);
+            }
+            dos.flush();
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(bytes.toByteArray()), 64 * 1024));
+            long total = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                total += dis.readUTF().length() + dis.readInt() + dis.readUTF().length() + dis.readLong() + dis.readLong();
+                total += dis.readInt() + dis.readLong() + dis.readInt() + dis.readInt();
+            }
+            sink = total;
+        };
+        run.run(); // Échauffement
+        run.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            writes[0] = 0;
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%s %10.1f ns/requête  %7.3f écritures/requête%n", label, (double) best / FRAMES, (double) writes[0] / FRAMES);
+    }
+
+    private static int checksum(byte[] cell, int length) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(cell, 0, length);
+        return (int) checksum.getValue();
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(data);
+        return checksum.getValue();
+    }
+
+    // Flux qui jette ce qu'il reçoit après en avoir calculé la somme de contrôle
+    private static final class CheckedOutputStream extends OutputStream {
+        private final CRC32C checksum = new CRC32C();
+
+        @Override
+        public void write(int b) {
+            checksum.update(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            checksum.update(b, off, len);
+        }
+
+        long checksum() {
+            sink = checksum.getValue();
+            return checksum.getValue();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Choix des sous-serveurs qui reçoivent les parties d'un fichier.
+// "roundrobin" : chaque fichier commence sur le sous-serveur suivant celui du fichier précédent.
+// "hash" : hachage cohérent du nom du fichier sur un anneau de points virtuels ; l'ajout
+// ou le retrait d'un sous-serveur ne déplace que les fichiers placés sur ses points.
+// Les réplicas d'une partie sont placés sur les sous-serveurs qui suivent le sien dans
+// le même ordre (successeurs sur l'anneau en mode hash), tous distincts.
+class Placement {
+    private static final int VIRTUAL_NODES = 128; // Points de l'anneau par sous-serveur
+
+    private final String[] nodes;
+    private final boolean hashed;
+    private final AtomicInteger next = new AtomicInteger();
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    Placement(String[] nodes, String mode) {
+        this.nodes = nodes;
+        this.hashed = "hash".equalsIgnoreCase(mode);
+        if (hashed) {
+            for (String node : nodes) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    ring.put(point(node + "#" + i), node);
+                }
+            }
+        }
+    }
+
+    // Sous-serveurs de chacune des count parties du fichier : le premier est distinct pour chaque
+    // partie (répétés s'il y a plus de parties que de sous-serveurs), suivi de replicas - 1 autres
+    // (moins s'il n'y a pas assez de sous-serveurs)
+    String[][] select(String fileName, int count, int replicas) {
+        List<String> distinct = new ArrayList<>(nodes.length);
+        if (hashed) {
+            // Parcourir l'anneau à partir du point du fichier jusqu'à avoir vu tous les sous-serveurs
+            long start = point(fileName);
+            Iterator<String> points = ring.tailMap(start).values().iterator();
+            boolean wrapped = false;
+            while (distinct.size() < nodes.length) {
+                if (!points.hasNext()) {
+                    if (wrapped) {
+                        break;
+                    }
+                    points = ring.headMap(start).values().iterator();
+                    wrapped = true;
+                    continue;
+                }
+                String node = points.next();
+                if (!distinct.contains(node)) {
+                    distinct.add(node);
+                }
+            }
+        } else {
+            int first = Math.floorMod(next.getAndIncrement(), nodes.length);
+            for (int i = 0; i < nodes.length; i++) {
+                distinct.add(nodes[(first + i) % nodes.length]);
+            }
+        }
+        String[][] selected = new String[count][Math.max(1, Math.min(replicas, distinct.size()))];
+        for (int i = 0; i < count; i++) {
+            for (int r = 0; r < selected[i].length; r++) {
+                selected[i][r] = distinct.get((i + r) % distinct.size());
+            }
+        }
+        return selected;
+    }
+
+    private static long point(String key) {
+        byte[] hash = ContentChunker.hash(key.getBytes(StandardCharsets.UTF_8));
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (hash[i] & 0xFF);
+        }
+        return value;
+    }
+}
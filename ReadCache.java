@@ -0,0 +1,216 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Cache de lecture du serveur principal : rangées de cellules de données déjà reconstituées
+// des fichiers récemment lus, servies sans interroger les sous-serveurs.
+// Les cellules sont gardées hors du tas, dans des zones allouées une fois pour toutes et
+// découpées en emplacements de slotSize octets (la taille des blocs) : le ramasse-miettes ne
+// les parcourt pas et la mémoire utilisée ne dépasse jamais la capacité. Éviction par rangée,
+// de la moins récemment lue à la plus récente (LRU).
+// Une rangée est identifiée par la version du fichier (l'entrée du catalogue elle-même) et
+// son numéro : une version remplacée n'est jamais servie, et invalidate libère aussitôt
+// les emplacements d'un fichier supprimé ou remplacé. Une rangée en cours de copie est
+// épinglée et ne peut pas être évincée.
+class ReadCache {
+    private final int slotSize;
+    private final int slotsPerArena;
+    private final ByteBuffer[] arenas;
+    private final int slotCount;
+    private final LinkedHashMap<Key, Row> rows = new LinkedHashMap<>(16, 0.75f, true); // Ordre d'accès
+    private final Deque<Integer> free = new ArrayDeque<>();
+    private final LongAdder hits = new LongAdder();      // Rangées servies par le cache
+    private final LongAdder misses = new LongAdder();    // Rangées lues sur les sous-serveurs
+    private final LongAdder evictions = new LongAdder(); // Rangées évincées pour faire de la place
+    private long usedBytes;
+
+    ReadCache(long capacity, int slotSize) {
+        this.slotSize = slotSize;
+        this.slotCount = (int) Math.min(Integer.MAX_VALUE, capacity / slotSize);
+        this.slotsPerArena = Integer.MAX_VALUE / slotSize; // Un ByteBuffer est limité à 2 Go
+        this.arenas = new ByteBuffer[(slotCount + slotsPerArena - 1) / slotsPerArena];
+        for (int i = 0; i < arenas.length; i++) {
+            int slots = Math.min(slotsPerArena, slotCount - i * slotsPerArena);
+            arenas[i] = ByteBuffer.allocateDirect(slots * slotSize);
+        }
+        for (int i = 0; i < slotCount; i++) {
+            free.add(i);
+        }
+    }
+
+    // Un fichier dont les cellules dépassent les emplacements, ou plus gros que le quart du cache
+    // (une seule lecture le viderait sans qu'il puisse y tenir durablement), n'est pas gardé
+    boolean admits(FileCatalog.Entry entry) {
+        return entry.cellSize > 0 && entry.cellSize <= slotSize && entry.size <= (long) slotCount * slotSize / 4;
+    }
+
+    // Vrai si la rangée est en cache, sans la marquer comme lue
+    synchronized boolean contains(FileCatalog.Entry entry, long row) {
+        return rows.containsKey(new Key(entry, row));
+    }
+
+    // Copier la rangée row dans cells (une cellule de données par partie) ; faux si elle est absente
+    boolean get(FileCatalog.Entry entry, long row, byte[][] cells) {
+        Row cached;
+        synchronized (this) {
+            cached = rows.get(new Key(entry, row));
+            if (cached == null) {
+                return false;
+            }
+            cached.pins++;
+        }
+        try {
+            for (int j = 0; j < cached.slots.length; j++) {
+                arena(cached.slots[j]).get(offset(cached.slots[j]), cells[j], 0, cached.lengths[j]);
+            }
+        } finally {
+            unpin(cached);
+        }
+        hits.increment();
+        return true;
+    }
+
+    // Garder la rangée row, lue sur les sous-serveurs (lengths : longueur de chaque cellule).
+    // Si tous les emplacements sont épinglés, la rangée n'est pas gardée.
+    void put(FileCatalog.Entry entry, long row, byte[][] cells, int[] lengths) {
+        misses.increment();
+        Key key = new Key(entry, row);
+        Row cached = new Row(lengths.clone());
+        synchronized (this) {
+            if (rows.containsKey(key) || !reserve(lengths.length)) {
+                return;
+            }
+            for (int j = 0; j < lengths.length; j++) {
+                cached.slots[j] = free.poll();
+            }
+            cached.pins = 1; // Invisible tant que la copie n'est pas terminée
+        }
+        for (int j = 0; j < lengths.length; j++) {
+            arena(cached.slots[j]).put(offset(cached.slots[j]), cells[j], 0, lengths[j]);
+        }
+        synchronized (this) {
+            cached.pins = 0;
+            if (rows.putIfAbsent(key, cached) != null) {
+                release(cached); // Rangée gardée entre-temps par une autre lecture
+            } else {
+                usedBytes += cached.bytes();
+            }
+        }
+    }
+
+    // Oublier toutes les rangées du fichier (suppression, nouvelle version)
+    synchronized void invalidate(String fileName) {
+        Iterator<Map.Entry<Key, Row>> iterator = rows.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Row> cached = iterator.next();
+            if (cached.getKey().entry.name.equals(fileName)) {
+                iterator.remove();
+                usedBytes -= cached.getValue().bytes();
+                release(cached.getValue());
+            }
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    long capacity() {
+        return (long) slotCount * slotSize;
+    }
+
+    // Libérer au moins count emplacements en évinçant les rangées les moins récemment lues
+    private boolean reserve(int count) {
+        if (count > slotCount) {
+            return false;
+        }
+        Iterator<Map.Entry<Key, Row>> iterator = rows.entrySet().iterator();
+        while (free.size() < count && iterator.hasNext()) {
+            Row cached = iterator.next().getValue();
+            if (cached.pins == 0) {
+                iterator.remove();
+                usedBytes -= cached.bytes();
+                release(cached);
+                evictions.increment();
+            }
+        }
+        return free.size() >= count;
+    }
+
+    // Rendre les emplacements d'une rangée retirée, dès que plus personne ne la copie
+    private void release(Row cached) {
+        cached.released = true;
+        if (cached.pins == 0) {
+            for (int slot : cached.slots) {
+                free.add(slot);
+            }
+        }
+    }
+
+    private synchronized void unpin(Row cached) {
+        cached.pins--;
+        if (cached.released) {
+            release(cached);
+        }
+    }
+
+    private ByteBuffer arena(int slot) {
+        return arenas[slot / slotsPerArena];
+    }
+
+    private int offset(int slot) {
+        return (slot % slotsPerArena) * slotSize;
+    }
+
+    private static final class Key {
+        final FileCatalog.Entry entry;
+        final long row;
+
+        Key(FileCatalog.Entry entry, long row) {
+            this.entry = entry;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).entry == entry && ((Key) o).row == row;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(entry) * 31 + Long.hashCode(row);
+        }
+    }
+
+    private static final class Row {
+        final int[] slots;
+        final int[] lengths;
+        int pins;         // Copies en cours
+        boolean released; // Retirée du cache : emplacements rendus au dernier désépinglage
+
+        Row(int[] lengths) {
+            this.slots = new int[lengths.length];
+            this.lengths = lengths;
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for (int length : lengths) {
+                bytes += length;
+            }
+            return bytes;
+        }
+    }
+}
@@ -1,45 +1,179 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
 
 public class Server {
     private static int PORT;
     // private static final int PORT = 5000;
     // private static final String[] SUB_SERVERS = {"localhost:5001", "localhost:5002", "localhost:5003"};
-    private static String[] SUB_SERVERS = new String[3];
-    private static final Set<String> fileList = new HashSet<>(); // Liste des fichiers principaux
+    private static String[] SUB_SERVERS = new String[0]; // SUB_SERVERS1, SUB_SERVERS2, ... dans l'ordre des numéros
+    private static Placement placement;
+    private static FileCatalog catalog; // Catalogue des fichiers principaux
     private static String SERVER_ADDRESS;
     private static int SUB_SERVER_PORT;
     private static String STORAGE_DIR;
+    private static final int MAX_LIST_PAGE_SIZE = 10000; // Entrées au plus par réponse LIST
+    private static String CATALOG_FILE;
+    private static long CATALOG_COMPACTION_INTERVAL = 60; // En secondes
+    // Limites d'exécution des connexions clientes
+    private static int ACCEPT_BACKLOG = 50;
+    private static String EXECUTOR_MODE = "fixed";
+    private static int MAX_IN_FLIGHT = 64;
+    private static int MAX_QUEUED = 256;
+    private static ConnectionExecutor connectionExecutor;
+    // Frontal : "blocking" (un thread par connexion) ou "nio" (Selector)
+    private static String SERVER_MODE = "blocking";
+    private static int NIO_THREADS = 2;
+    // Connexions persistantes vers les sous-serveurs
+    private static int SUB_SERVER_POOL_SIZE = 8;
+    private static long SUB_SERVER_IDLE_TIMEOUT = 60000;
+    private static int SUB_SERVER_READ_TIMEOUT = 10000; // Sous-serveur muet au-delà : en panne (ms, 0 : jamais)
+    private static SubServerPool subServerPool;
+    // Déduplication : parties découpées en morceaux définis par leur contenu (taille moyenne en octets)
+    private static boolean DEDUP = false;
+    private static int DEDUP_CHUNK_SIZE = 64 * 1024;
+    private static final int DEDUP_BATCH_SIZE = 4 * 1024 * 1024; // Morceaux vérifiés par lot
+    // Threads d'envoi des parties vers les sous-serveurs
+    // Découpage en blocs de BLOCK_SIZE octets répartis sur au plus EC_DATA_SHARDS parties de données
+    // (0 : autant que de sous-serveurs non utilisés pour la parité) et EC_PARITY_SHARDS de parité
+    private static int BLOCK_SIZE = 4 * 1024 * 1024;
+    private static int EC_DATA_SHARDS = 0;
+    private static int EC_PARITY_SHARDS = 0;
+    private static String PLACEMENT = "roundrobin"; // roundrobin ou hash
+    // Sous-serveurs qui reçoivent chaque partie ; lecture doublée vers un autre réplica après le
+    // centile HEDGE_PERCENTILE des délais de réponse du premier (0 : jamais), au moins HEDGE_MIN_DELAY ms
+    private static int REPLICATION = 1;
+    private static double HEDGE_PERCENTILE = 95;
+    private static long HEDGE_MIN_DELAY = 10;
+    private static int INLINE_THRESHOLD = 4096; // Fichiers gardés dans le catalogue jusqu'à cette taille (octets)
+    // Reprise des envois : fenêtre validée tous les SEND_COMMIT_INTERVAL octets, session
+    // abandonnée (parties supprimées) après SEND_SESSION_TIMEOUT ms sans reprise
+    private static long SEND_COMMIT_INTERVAL = 64L * 1024 * 1024;
+    private static long SEND_SESSION_TIMEOUT = 3600000;
+    // Codecs acceptés pour les connexions des clients et proposés aux sous-serveurs,
+    // par ordre de préférence ("none" : pas de compression)
+    private static String COMPRESSION = Codec.NONE;
+    private static final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    // Lectures en cours de chaque version de fichier (entrée du catalogue, comparée par identité)
+    // et versions remplacées qui attendent la fin de ces lectures pour être supprimées
+    private static final Map<FileCatalog.Entry, Integer> readers = new HashMap<>();
+    private static final Set<FileCatalog.Entry> retired = new HashSet<>();
+    // Dernière génération attribuée aux parties d'un envoi (croissante, d'après l'horloge)
+    private static final AtomicLong lastGeneration = new AtomicLong();
+    // Lots de requêtes (BATCH) : requêtes traitées en parallèle par connexion, et octets
+    // de fichiers lus en avance ; un fichier plus grand est relayé au fil de la lecture
+    private static int BATCH_MAX_IN_FLIGHT = 16;
+    private static int BATCH_BUFFER_SIZE = 16 * 1024 * 1024;
+    // Conservation des fichiers : durée de vie depuis l'envoi (0 : illimitée), intervalle entre
+    // deux passages du nettoyage et nombre de fichiers supprimés par lot (en secondes)
+    private static long RETENTION_TTL = 0;
+    private static long RETENTION_INTERVAL = 60;
+    private static int RETENTION_BATCH_SIZE = 1000;
+    // Cache de lecture des rangées reconstituées, hors du tas (0 : désactivé)
+    private static long READ_CACHE_SIZE = 0;
+    private static ReadCache readCache;
+    // Mesures : port HTTP local (0 : aucun) et intervalle des résumés dans le journal (secondes, 0 : aucun)
+    private static int METRICS_PORT = 0;
+    private static long METRICS_SNAPSHOT_INTERVAL = 0;
+    // Tampons inactifs conservés pour être réutilisés par les transferts (octets)
+    private static long BUFFER_POOL_SIZE = 64L * 1024 * 1024;
+    private static long BUFFER_POOL_BUDGET = 512L * 1024 * 1024;
+    // Débit des connexions clientes (octets/s, 0 : illimité) : global, par client, par commande,
+    // réparti équitablement selon le poids de chaque commande
+    private static long BANDWIDTH_LIMIT = 0;
+    private static long CLIENT_BANDWIDTH_LIMIT = 0;
+    private static String COMMAND_BANDWIDTH_LIMITS = "";
+    private static String BANDWIDTH_WEIGHTS = "";
+    private static BandwidthShaper shaper; // null : débit illimité
+    private static final ExecutorService STRIPE_POOL = Executors.newCachedThreadPool();
+    private static final ByteBuffer END_OF_PART = ByteBuffer.allocate(0); // Marqueur de fin de partie
 
+    // Usage : java Server [fichier_de_configuration]   (défaut : config.txt)
     public static void main(String[] args) {
         // Lire le fichier de configuration
-        loadConfig();
-        try (ServerSocket serverSocket = new ServerSocket(PORT,50,InetAddress.getByName(SERVER_ADDRESS))) {
-            System.out.println("Serveur principal en attente de connexions sur le port " + PORT);
+        loadConfig(args.length > 0 ? args[0] : "config.txt");
+        try {
+            catalog = new FileCatalog(new File(CATALOG_FILE != null ? CATALOG_FILE : STORAGE_DIR + "/catalog.log"), CATALOG_COMPACTION_INTERVAL);
+        } catch (IOException e) {
+            System.err.println("Erreur lors du chargement du catalogue : " + e.getMessage());
+            return;
+        }
+        if (SUB_SERVERS.length == 0) {
+            System.err.println("Aucun sous-serveur configuré (SUB_SERVERS1=adresse:port, ...)");
+            return;
+        }
+        if (maxDataShards() + EC_PARITY_SHARDS > SUB_SERVERS.length) {
+            Log.info("Attention : jusqu'à " + (maxDataShards() + EC_PARITY_SHARDS) + " parties pour " + SUB_SERVERS.length
+                    + " sous-serveurs, la perte d'un sous-serveur peut rendre des fichiers illisibles");
+        }
+        if (REPLICATION > SUB_SERVERS.length) {
+            Log.info("Attention : " + REPLICATION + " réplicas demandés pour " + SUB_SERVERS.length
+                    + " sous-serveurs, chaque partie n'aura que " + SUB_SERVERS.length + " exemplaires");
+        }
+        placement = new Placement(SUB_SERVERS, PLACEMENT);
+        subServerPool = new SubServerPool(SUB_SERVER_POOL_SIZE, SUB_SERVER_IDLE_TIMEOUT, SUB_SERVER_READ_TIMEOUT, COMPRESSION, HEDGE_PERCENTILE, HEDGE_MIN_DELAY);
+        if (READ_CACHE_SIZE >= BLOCK_SIZE) {
+            readCache = new ReadCache(READ_CACHE_SIZE, BLOCK_SIZE);
+            Log.info("Cache de lecture : " + readCache.capacity() + " octets");
+            Metrics.gauge("read_cache_hits_total", readCache::hits);
+            Metrics.gauge("read_cache_misses_total", readCache::misses);
+            Metrics.gauge("read_cache_evictions_total", readCache::evictions);
+            Metrics.gauge("read_cache_bytes", readCache::usedBytes);
+        }
+        if (RETENTION_TTL > 0) {
+            ScheduledExecutorService retention = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "retention");
+                thread.setDaemon(true);
+                return thread;
+            });
+            retention.scheduleWithFixedDelay(Server::expireFiles, RETENTION_INTERVAL, RETENTION_INTERVAL, TimeUnit.SECONDS);
+            Log.info("Fichiers conservés " + RETENTION_TTL + " s après leur envoi");
+        }
+        connectionExecutor = new ConnectionExecutor("Serveur principal", PORT, EXECUTOR_MODE, MAX_IN_FLIGHT, MAX_QUEUED);
+        Metrics.gauge("catalog_files", catalog::size);
+        Metrics.gauge("upload_sessions", sessions::size);
+        BufferPool.configure(BUFFER_POOL_SIZE, BUFFER_POOL_BUDGET);
+        shaper = new BandwidthShaper(BANDWIDTH_LIMIT, CLIENT_BANDWIDTH_LIMIT, COMMAND_BANDWIDTH_LIMITS, BANDWIDTH_WEIGHTS);
+        if (!shaper.enabled()) {
+            shaper = null;
+        }
+        Metrics.start(METRICS_PORT, METRICS_SNAPSHOT_INTERVAL);
+        if ("nio".equalsIgnoreCase(SERVER_MODE)) {
+            try {
+                new NioFrontEnd(new InetSocketAddress(SERVER_ADDRESS, PORT), ACCEPT_BACKLOG, NIO_THREADS,
+                        connectionExecutor, Server::inlineResponse, Server::inlineBody, Server::handleClient).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        try (ServerSocket serverSocket = new ServerSocket(PORT, ACCEPT_BACKLOG, InetAddress.getByName(SERVER_ADDRESS))) {
+            Log.info("Serveur principal en attente de connexions sur le port " + PORT);
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("Nouveau client connecté : " + clientSocket.getInetAddress());
+                Log.info("Nouveau client connecté : " + clientSocket.getInetAddress());
 
-                // Lancer un thread pour gérer ce client
-                new Thread(() -> handleClient(clientSocket)).start();
+                // Confier ce client au pool de connexions (refusé si surcharge)
+                connectionExecutor.submit(clientSocket, Server::handleClient);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private static void loadConfig() {
-        try (BufferedReader reader = new BufferedReader(new FileReader("config.txt"))) {
+    private static void loadConfig(String configFile) {
+        SortedMap<Integer, String> subServers = new TreeMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                if (line.startsWith("SUB_SERVERS1")) {
-                    SUB_SERVERS[0] = line.split("=")[1].trim();
-                } else if (line.startsWith("SUB_SERVERS2")) {
-                    SUB_SERVERS[1] = line.split("=")[1].trim();
-                } else if (line.startsWith("SUB_SERVERS3")) {
-                    SUB_SERVERS[2] = line.split("=")[1].trim();
+                if (line.startsWith("SUB_SERVERS")) {
+                    String key = line.split("=")[0].trim();
+                    subServers.put(Integer.parseInt(key.substring("SUB_SERVERS".length())), line.split("=")[1].trim());
                 } else if (line.startsWith("PORT")) {
                     PORT = Integer.parseInt(line.split("=")[1].trim());
                 } else if (line.startsWith("SERVER_ADDRESS")) {
@@ -50,35 +184,131 @@ public class Server {
                     STORAGE_DIR = line.split("=")[1].trim();
                     // Créer le répertoire s'il n'existe pas
                     new File(STORAGE_DIR).mkdirs();
+                } else if (line.startsWith("ACCEPT_BACKLOG")) {
+                    ACCEPT_BACKLOG = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("EXECUTOR_MODE")) {
+                    EXECUTOR_MODE = line.split("=")[1].trim();
+                } else if (line.startsWith("MAX_IN_FLIGHT")) {
+                    MAX_IN_FLIGHT = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("MAX_QUEUED")) {
+                    MAX_QUEUED = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("SERVER_MODE")) {
+                    SERVER_MODE = line.split("=")[1].trim();
+                } else if (line.startsWith("NIO_THREADS")) {
+                    NIO_THREADS = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("CATALOG_FILE")) {
+                    CATALOG_FILE = line.split("=")[1].trim();
+                } else if (line.startsWith("CATALOG_COMPACTION_INTERVAL")) {
+                    CATALOG_COMPACTION_INTERVAL = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("DEDUP_CHUNK_SIZE")) {
+                    DEDUP_CHUNK_SIZE = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("DEDUP")) {
+                    DEDUP = Boolean.parseBoolean(line.split("=")[1].trim());
+                } else if (line.startsWith("SUB_SERVER_POOL_SIZE")) {
+                    SUB_SERVER_POOL_SIZE = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("SUB_SERVER_IDLE_TIMEOUT")) {
+                    SUB_SERVER_IDLE_TIMEOUT = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("SUB_SERVER_READ_TIMEOUT")) {
+                    SUB_SERVER_READ_TIMEOUT = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("BLOCK_SIZE")) {
+                    BLOCK_SIZE = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("SEND_COMMIT_INTERVAL")) {
+                    SEND_COMMIT_INTERVAL = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("SEND_SESSION_TIMEOUT")) {
+                    SEND_SESSION_TIMEOUT = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("BATCH_MAX_IN_FLIGHT")) {
+                    BATCH_MAX_IN_FLIGHT = Math.max(1, Integer.parseInt(line.split("=")[1].trim()));
+                } else if (line.startsWith("BATCH_BUFFER_SIZE")) {
+                    BATCH_BUFFER_SIZE = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("RETENTION_TTL")) {
+                    RETENTION_TTL = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("RETENTION_INTERVAL")) {
+                    RETENTION_INTERVAL = Math.max(1, Long.parseLong(line.split("=")[1].trim()));
+                } else if (line.startsWith("RETENTION_BATCH_SIZE")) {
+                    RETENTION_BATCH_SIZE = Math.max(1, Integer.parseInt(line.split("=")[1].trim()));
+                } else if (line.startsWith("METRICS_PORT")) {
+                    METRICS_PORT = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("METRICS_SNAPSHOT_INTERVAL")) {
+                    METRICS_SNAPSHOT_INTERVAL = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("BANDWIDTH_LIMIT")) {
+                    BANDWIDTH_LIMIT = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("CLIENT_BANDWIDTH_LIMIT")) {
+                    CLIENT_BANDWIDTH_LIMIT = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("COMMAND_BANDWIDTH_LIMITS")) {
+                    COMMAND_BANDWIDTH_LIMITS = line.split("=")[1].trim();
+                } else if (line.startsWith("BANDWIDTH_WEIGHTS")) {
+                    BANDWIDTH_WEIGHTS = line.split("=")[1].trim();
+                } else if (line.startsWith("BUFFER_POOL_SIZE")) {
+                    BUFFER_POOL_SIZE = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("BUFFER_POOL_BUDGET")) {
+                    BUFFER_POOL_BUDGET = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("READ_CACHE_SIZE")) {
+                    READ_CACHE_SIZE = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("COMPRESSION")) {
+                    COMPRESSION = line.split("=")[1].trim();
+                } else if (line.startsWith("INLINE_THRESHOLD")) {
+                    INLINE_THRESHOLD = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("REPLICATION")) {
+                    REPLICATION = Math.max(1, Integer.parseInt(line.split("=")[1].trim()));
+                } else if (line.startsWith("HEDGE_PERCENTILE")) {
+                    HEDGE_PERCENTILE = Double.parseDouble(line.split("=")[1].trim());
+                } else if (line.startsWith("HEDGE_MIN_DELAY")) {
+                    HEDGE_MIN_DELAY = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("PLACEMENT")) {
+                    PLACEMENT = line.split("=")[1].trim();
+                } else if (line.startsWith("EC_DATA_SHARDS")) {
+                    EC_DATA_SHARDS = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("EC_PARITY_SHARDS")) {
+                    EC_PARITY_SHARDS = Integer.parseInt(line.split("=")[1].trim());
                 }
             }
         } catch (IOException e) {
             System.err.println("Erreur lors du chargement du fichier de configuration : " + e.getMessage());
         }
+        SUB_SERVERS = subServers.values().toArray(new String[0]);
+    }
+
+    private static int maxDataShards() {
+        return EC_DATA_SHARDS > 0 ? EC_DATA_SHARDS : Math.max(1, SUB_SERVERS.length - EC_PARITY_SHARDS);
     }
 
     private static void handleClient(Socket clientSocket) {
-        try (DataInputStream dis = new DataInputStream(clientSocket.getInputStream());
-             DataOutputStream dos = new DataOutputStream(clientSocket.getOutputStream())) {
+        handleClient(clientSocket, null);
+    }
 
-            String command = dis.readUTF();
+    // request : octets de la requête déjà lus par le frontal NIO (null en mode bloquant)
+    private static void handleClient(Socket clientSocket, byte[] request) {
+        // Octets comptés et limités sur la socket, donc après compression éventuelle
+        BandwidthShaper.Flow flow = shaper != null ? shaper.flow(clientSocket.getInetAddress().getHostAddress()) : null;
+        try (Metrics.CountingInputStream received = new Metrics.CountingInputStream(shaped(request == null ? clientSocket.getInputStream()
+                     : new SequenceInputStream(new ByteArrayInputStream(request), clientSocket.getInputStream()), flow));
+             Metrics.CountingOutputStream sent = new Metrics.CountingOutputStream(shaped(clientSocket.getOutputStream(), flow));
+             DataInputStream dis = new DataInputStream(received);
+             DataOutputStream dos = new DataOutputStream(sent)) {
 
-            switch (command) {
-                case "LIST":
-                    handleListCommand(dos);
-                    break;
-                case "SEND":
-                    handleSendCommand(clientSocket, dis);
-                    break;
-                case "RECEIVE":
-                    handleReceiveCommand(clientSocket, dis, dos);
-                    break;
-                case "DELETE":
-                    handleDeleteFile(dis, dos);
-                    break;
-                default:
-                    System.out.println("Commande non reconnue : " + command);
-                    break;
+            DataInputStream in = dis;
+            DataOutputStream out = dos;
+            String command = dis.readUTF();
+            if ("CODEC".equals(command)) {
+                // Compression négociée : la suite de la connexion passe par des flux compressés par blocs
+                String codec = Codec.negotiate(dis.readUTF(), COMPRESSION);
+                dos.writeUTF(codec);
+                dos.flush();
+                if (!codec.equals(Codec.NONE)) {
+                    in = new DataInputStream(new CodecInputStream(dis));
+                    out = new DataOutputStream(new CodecOutputStream(dos, Codec.forName(codec)));
+                }
+                command = in.readUTF();
+            }
+            if (flow != null) {
+                flow.start(command);
+            }
+            long start = System.nanoTime();
+            try {
+                handleCommand(command, in, out);
+                out.flush();
+            } finally {
+                Metrics.recordCommand(command, System.nanoTime() - start, received.count(), sent.count());
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -91,262 +321,1129 @@ public class Server {
         }
     }
 
-    private static void handleListCommand(DataOutputStream dos) throws IOException {
-        // Envoyer la liste des fichiers principaux au client
-        dos.writeInt(fileList.size());
-        for (String fileName : fileList) {
-            dos.writeUTF(fileName);
+    private static InputStream shaped(InputStream in, BandwidthShaper.Flow flow) {
+        return flow == null ? in : new BandwidthShaper.ShapedInputStream(in, flow);
+    }
+
+    private static OutputStream shaped(OutputStream out, BandwidthShaper.Flow flow) {
+        return flow == null ? out : new BandwidthShaper.ShapedOutputStream(out, flow);
+    }
+
+    private static void handleCommand(String command, DataInputStream dis, DataOutputStream dos) throws IOException {
+        switch (command) {
+            case "LIST":
+                handleListCommand(dis, dos);
+                break;
+            case "SEND":
+                handleSendCommand(dis, dos);
+                break;
+            case "RECEIVE":
+                handleReceiveCommand(dis, dos);
+                break;
+            case "DELETE":
+                handleDeleteFile(dis, dos);
+                break;
+            case "SEGMENT":
+                handleSegmentCommand(dis, dos);
+                break;
+            case "BATCH":
+                handleBatchCommand(dis, dos);
+                break;
+            case "STATS":
+                handleStatsCommand(dos);
+                break;
+            default:
+                Log.info("Commande non reconnue : " + command);
+                break;
         }
-        System.out.println("Liste des fichiers envoyée au client.");
     }
 
-    private static void handleSendCommand(Socket clientSocket, DataInputStream dis) throws IOException {
+    // Réponse complète à une requête reçue par le frontal NIO lorsqu'elle peut être
+    // produite sans attente (LIST, STATS, RECEIVE d'un fichier gardé dans le catalogue,
+    // SEND d'un petit fichier dont le corps suit l'en-tête), null pour les autres transferts
+    private static byte[] inlineResponse(byte[] request) {
+        long start = System.nanoTime();
+        try {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(request));
+            String command = dis.readUTF();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            if ("LIST".equals(command)) {
+                handleListCommand(dis, new DataOutputStream(response));
+            } else if ("STATS".equals(command)) {
+                handleStatsCommand(new DataOutputStream(response));
+            } else if ("RECEIVE".equals(command)) {
+                FileCatalog.Entry entry = catalog.get(dis.readUTF());
+                if (entry == null || entry.inline == null) {
+                    return null;
+                }
+                sendEntry(entry, dis.readLong(), dis.readLong(), new DataOutputStream(response));
+            } else if ("SEND".equals(command)) {
+                String fileName = dis.readUTF();
+                long fileSize = dis.readLong();
+                if (fileSize < 0 || fileSize > INLINE_THRESHOLD) {
+                    return null;
+                }
+                dis.readUTF(); // Identifiant de reprise, sans objet pour un petit fichier
+                dis.readInt();
+                new DataOutputStream(response).writeBoolean(register(readInline(dis, fileName, fileSize), fileName));
+            } else {
+                return null;
+            }
+            Metrics.recordCommand(command, System.nanoTime() - start, request.length, response.size());
+            return response.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Corps lu par le frontal NIO avant inlineResponse : SEND d'un petit fichier, après la
+    // réponse attendue par le client (envoi complet sur cette connexion). L'enregistrement
+    // (register) ajoute l'entrée au journal du catalogue, sans synchronisation disque, et confie
+    // à STRIPE_POOL la suppression des parties d'une version remplacée.
+    private static NioFrontEnd.Body inlineBody(byte[] header) {
+        try {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(header));
+            if (!"SEND".equals(dis.readUTF())) {
+                return null;
+            }
+            dis.readUTF();
+            long fileSize = dis.readLong();
+            if (fileSize < 0 || fileSize > INLINE_THRESHOLD) {
+                return null;
+            }
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(reply);
+            dos.writeLong(0);
+            dos.writeLong(0);
+            return new NioFrontEnd.Body(reply.toByteArray(), (int) fileSize);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void handleListCommand(DataInputStream dis, DataOutputStream dos) throws IOException {
+        // Filtre par préfixe, taille de page et curseur de reprise (dernier nom reçu, vide au début)
+        String prefix = dis.readUTF();
+        int pageSize = Math.max(1, Math.min(dis.readInt(), MAX_LIST_PAGE_SIZE));
+        String cursor = dis.readUTF();
+
+        // Envoyer une page de l'index trié du catalogue (nom et taille de chaque fichier)
+        List<FileCatalog.Entry> page = catalog.page(prefix, cursor, pageSize);
+        for (FileCatalog.Entry entry : page) {
+            dos.writeBoolean(true);
+            dos.writeUTF(entry.name);
+            dos.writeLong(entry.size);
+        }
+        dos.writeBoolean(false);
+        // Curseur de la page suivante, vide s'il n'y en a plus
+        boolean more = page.size() == pageSize && !catalog.page(prefix, page.get(page.size() - 1).name, 1).isEmpty();
+        dos.writeUTF(more ? page.get(page.size() - 1).name : "");
+        Log.info("Liste des fichiers envoyée au client (" + page.size() + " fichiers).");
+    }
+
+    // STATS : compteurs du serveur principal, chacun précédé de true (nom, valeur), puis false
+    private static void handleStatsCommand(DataOutputStream dos) throws IOException {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("catalog_files", (long) catalog.size());
+        if (readCache != null) {
+            stats.put("read_cache_hits", readCache.hits());
+            stats.put("read_cache_misses", readCache.misses());
+            stats.put("read_cache_evictions", readCache.evictions());
+            stats.put("read_cache_bytes", readCache.usedBytes());
+            stats.put("read_cache_capacity", readCache.capacity());
+        }
+        for (Map.Entry<String, Long> stat : stats.entrySet()) {
+            dos.writeBoolean(true);
+            dos.writeUTF(stat.getKey());
+            dos.writeLong(stat.getValue());
+        }
+        dos.writeBoolean(false);
+    }
+
+    private static void handleSendCommand(DataInputStream dis, DataOutputStream dos) throws IOException {
         String fileName = dis.readUTF();
         long fileSize = dis.readLong();
+        String sessionId = dis.readUTF(); // Identifiant de reprise choisi par le client (vide : sans reprise)
+        int streams = dis.readInt();      // Plus d'une connexion : segments envoyés par SEGMENT
+
+        FileCatalog.Entry entry;
+        if (fileSize <= INLINE_THRESHOLD) {
+            dos.writeLong(0); // Fichier attendu en entier, sur cette connexion
+            dos.writeLong(0);
+            dos.flush();
+            entry = readInline(dis, fileName, fileSize);
+        } else {
+            UploadSession session = openSession(sessionId, fileName, fileSize);
+            if (session == null) {
+                dos.writeLong(-1); // Envoi déjà en cours sur une autre connexion
+                dos.writeLong(0);
+                Log.info("Envoi de " + fileName + " déjà en cours");
+                return;
+            }
+            // Indiquer au client à partir de quel octet envoyer (fin des fenêtres validées)
+            // et l'alignement des segments envoyés en parallèle (une rangée)
+            long committed = session.committed();
+            dos.writeLong(committed);
+            // Pas de segments en mode déduplication : le manifeste d'une partie est écrit d'un seul tenant
+            dos.writeLong(DEDUP ? 0 : session.rowSize);
+            dos.flush();
+            if (committed > 0) {
+                Log.info("Reprise de l'envoi de " + fileName + " à l'octet " + committed);
+            }
+            if (streams > 1 && !sessionId.isEmpty() && !DEDUP) {
+                entry = awaitSegments(dis, session);
+            } else {
+                // Découper le flux reçu en blocs, les coder en k+m parties et les envoyer en parallèle aux sous-serveurs
+                entry = splitAndSendToSubServers(dis, session);
+            }
+        }
+
+        // Acquitter le client une fois toutes les parties confirmées
+        dos.writeBoolean(register(entry, fileName));
+    }
+
+    // Petit fichier : gardé dans le catalogue, sans aller-retour vers les sous-serveurs
+    private static FileCatalog.Entry readInline(DataInputStream dis, String fileName, long fileSize) throws IOException {
+        byte[] data = new byte[(int) fileSize];
+        dis.readFully(data);
+        CRC32C checksum = new CRC32C();
+        checksum.update(data);
+        return new FileCatalog.Entry(fileName, data, checksum.getValue(), System.currentTimeMillis());
+    }
+
+    // Ajouter au catalogue le fichier reçu (null : enregistrement échoué) ; faux en cas d'échec
+    private static boolean register(FileCatalog.Entry entry, String fileName) throws IOException {
+        if (entry == null) {
+            Log.info("Échec de l'enregistrement du fichier : " + fileName);
+            return false;
+        }
+        FileCatalog.Entry previous = catalog.put(entry);
+        if (previous != null) {
+            invalidateCache(fileName);
+            // Les parties de la nouvelle version portent d'autres noms : l'ancienne est
+            // supprimée entièrement, une fois remplacée et ses lectures en cours terminées
+            // (un petit fichier gardé dans le catalogue n'a pas de parties)
+            if (previous.inline == null) {
+                retire(previous);
+            }
+        }
+        Log.info(entry.inline != null ? "Fichier reçu et gardé dans le catalogue : " + fileName
+                : "Fichier reçu et réparti sur les sous-serveurs : " + fileName);
+        return true;
+    }
+
+    // BATCH : suite de requêtes SEND, RECEIVE et DELETE sur une même connexion, chacune
+    // précédée de son numéro (0 : fin du lot) :
+    //   SEND nom taille octets | RECEIVE nom début longueur | DELETE nom
+    // Les requêtes sont lues à la suite sans attendre les réponses et traitées en parallèle
+    // (au plus BATCH_MAX_IN_FLIGHT à la fois). Chaque réponse, précédée du numéro de sa
+    // requête et identique à celle de la commande seule (SEND : acquittement seulement),
+    // est envoyée dès que la requête est terminée : l'ordre des réponses n'est pas garanti
+    // et les requêtes d'un même lot ne doivent pas dépendre les unes des autres. Seul le
+    // contenu d'un RECEIVE diffère : il suit son en-tête en morceaux (numéro, longueur,
+    // octets) entre lesquels s'intercalent les réponses des autres requêtes (BatchFrames).
+    private static void handleBatchCommand(DataInputStream dis, DataOutputStream dos) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(dis, 64 * 1024));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(dos, 64 * 1024));
+        Semaphore inFlight = new Semaphore(BATCH_MAX_IN_FLIGHT);
+        Semaphore buffered = new Semaphore(BATCH_BUFFER_SIZE); // Octets de fichiers lus en avance
+        int requests = 0;
+        try {
+            int requestId;
+            while ((requestId = in.readInt()) != 0) {
+                int id = requestId;
+                String command = in.readUTF();
+                String fileName = in.readUTF();
+                requests++;
+                switch (command) {
+                    case "SEND":
+                        long fileSize = in.readLong();
+                        if (fileSize < 0) {
+                            throw new IOException("Taille de fichier invalide : " + fileName + " (" + fileSize + ")");
+                        }
+                        if (fileSize > BATCH_BUFFER_SIZE) {
+                            // Gros fichier : relayé aux sous-serveurs au fil de la lecture du lot
+                            boolean stored = register(receiveFile(in, fileName, fileSize), fileName);
+                            respond(out, id, response -> response.writeBoolean(stored));
+                            break;
+                        }
+                        acquire(buffered, (int) fileSize);
+                        byte[] data = new byte[(int) fileSize];
+                        in.readFully(data);
+                        submitBatch(inFlight, out, () -> {
+                            boolean stored;
+                            try {
+                                stored = register(receiveFile(new DataInputStream(new ByteArrayInputStream(data)), fileName, data.length), fileName);
+                            } finally {
+                                buffered.release(data.length);
+                            }
+                            respond(out, id, response -> response.writeBoolean(stored));
+                        });
+                        break;
+                    case "RECEIVE":
+                        long offset = in.readLong();
+                        long length = in.readLong();
+                        submitBatch(inFlight, out, () -> {
+                            FileCatalog.Entry entry = openVersion(fileName);
+                            try {
+                                if (entry == null) {
+                                    respond(out, id, response -> response.writeBoolean(false));
+                                    Log.info("Fichier non trouvé : " + fileName);
+                                } else {
+                                    BatchFrames frames = new BatchFrames(out, id);
+                                    sendEntry(entry, offset, length, frames.header(), frames);
+                                }
+                            } finally {
+                                closeVersion(entry);
+                            }
+                        });
+                        break;
+                    case "DELETE":
+                        submitBatch(inFlight, out, () -> {
+                            String message = deleteFile(fileName);
+                            respond(out, id, response -> response.writeUTF(message));
+                        });
+                        break;
+                    default:
+                        throw new IOException("Commande non reconnue dans un lot : " + command);
+                }
+            }
+        } finally {
+            // Attendre les requêtes encore en cours avant de terminer le lot
+            acquire(inFlight, BATCH_MAX_IN_FLIGHT);
+        }
+        respond(out, 0, response -> { });
+        Log.info("Lot de " + requests + " requêtes traité.");
+    }
 
-        // Ajouter le fichier à la liste des fichiers principaux
-        fileList.add(fileName);
+    interface BatchRequest {
+        void run() throws IOException;
+    }
 
-        // Créer un fichier temporaire pour stocker le fichier reçu
-        File tempFile = new File("temp_" + fileName);
-        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-            byte[] buffer = new byte[1024 * 1024]; // Buffer de 1 Mo
-            int bytesRead;
-            while (fileSize > 0 && (bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, fileSize))) != -1) {
-                fos.write(buffer, 0, bytesRead);
-                fileSize -= bytesRead;
+    interface BatchResponse {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    // Écrire la réponse à la requête requestId ; les réponses des requêtes du lot ne s'entremêlent pas
+    static void respond(DataOutputStream out, int requestId, BatchResponse response) throws IOException {
+        synchronized (out) {
+            out.writeInt(requestId);
+            response.writeTo(out);
+            out.flush();
+        }
+    }
+
+    private static void submitBatch(Semaphore inFlight, DataOutputStream out, BatchRequest request) throws IOException {
+        acquire(inFlight, 1);
+        STRIPE_POOL.execute(() -> {
+            try {
+                request.run();
+            } catch (IOException | RuntimeException e) {
+                // Réponse interrompue : la connexion est désynchronisée, le client la verra fermée
+                Log.info("Erreur lors du traitement d'une requête du lot : " + e.getMessage());
+                try {
+                    out.close();
+                } catch (IOException closeError) {
+                    // Connexion déjà fermée
+                }
+            } finally {
+                inFlight.release();
             }
+        });
+    }
+
+    private static void acquire(Semaphore semaphore, int permits) throws IOException {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Lot interrompu");
         }
-        System.out.println("Fichier reçu et stocké temporairement : " + tempFile.getName());
+    }
+
+    // Recevoir un fichier sans reprise possible (lot de requêtes)
+    private static FileCatalog.Entry receiveFile(DataInputStream dis, String fileName, long fileSize) throws IOException {
+        if (fileSize <= INLINE_THRESHOLD) {
+            return readInline(dis, fileName, fileSize);
+        }
+        return splitAndSendToSubServers(dis, openSession("", fileName, fileSize));
+    }
+
+    // Envoi en plusieurs connexions : les segments arrivent par des commandes SEGMENT et
+    // cette connexion attend que le client signale la fin de ses envois
+    private static FileCatalog.Entry awaitSegments(DataInputStream dis, UploadSession session) throws IOException {
+        try {
+            dis.readBoolean();
+        } finally {
+            releaseSession(session);
+        }
+        return completeSession(session);
+    }
+
+    // SEGMENT : une plage de rangées entières d'un envoi en plusieurs connexions
+    private static void handleSegmentCommand(DataInputStream dis, DataOutputStream dos) throws IOException {
+        String sessionId = dis.readUTF();
+        long offset = dis.readLong();
+        long length = dis.readLong();
 
-        // Diviser le fichier en 3 parties et les envoyer aux sous-serveurs
-        splitAndSendToSubServers(tempFile, fileName);
+        UploadSession session = sessions.get(sessionId);
+        if (session == null || !session.active) {
+            throw new IOException("Session d'envoi inconnue : " + sessionId);
+        }
+        long end = offset + length;
+        if (offset % session.rowSize != 0 || end > session.entry.size || (end % session.rowSize != 0 && end != session.entry.size)) {
+            throw new IOException("Segment non aligné sur les rangées : " + offset + " + " + length);
+        }
+        long rows = session.entry.layout().rows();
+        boolean stored = receiveRows(dis, session, offset / session.rowSize, end == session.entry.size ? rows : end / session.rowSize);
+        dos.writeBoolean(stored);
+        Log.info("Segment " + offset + " + " + length + " de " + session.entry.name + (stored ? " enregistré" : " refusé"));
+    }
 
-        // Supprimer le fichier temporaire
-        tempFile.delete();
-        System.out.println("Fichier temporaire supprimé.");
+    // Session de l'envoi repris, ou nouvelle session si l'identifiant est inconnu ou désigne
+    // un autre fichier ; null si une autre connexion pilote déjà cet envoi
+    private static UploadSession openSession(String sessionId, String fileName, long fileSize) {
+        expireSessions();
+        if (sessionId.isEmpty()) {
+            UploadSession session = new UploadSession(sessionId, newEntry(fileName, fileSize));
+            session.active = true;
+            return session;
+        }
+        UploadSession session = sessions.get(sessionId);
+        if (session != null) {
+            synchronized (session) {
+                if (session.active) {
+                    return null;
+                }
+                if (session.entry.name.equals(fileName) && session.entry.size == fileSize) {
+                    session.active = true;
+                    return session;
+                }
+            }
+            sessions.remove(sessionId, session);
+            deleteParts(session.entry);
+        }
+        session = new UploadSession(sessionId, newEntry(fileName, fileSize));
+        session.active = true;
+        sessions.put(sessionId, session);
+        return session;
     }
 
-    private static void handleReceiveCommand(Socket clientSocket, DataInputStream dis, DataOutputStream dos) throws IOException {
+    // Fin d'une tentative d'envoi : la session reste disponible pour une reprise
+    private static void releaseSession(UploadSession session) {
+        synchronized (session) {
+            session.active = false;
+            session.lastActive = System.currentTimeMillis();
+        }
+    }
+
+    // Entrée du fichier si toutes ses fenêtres ont été validées (la session est alors terminée),
+    // null sinon ; les parties d'un envoi refusé par un sous-serveur sont supprimées
+    private static FileCatalog.Entry completeSession(UploadSession session) {
+        FileCatalog.Entry entry = session.entry;
+        if (session.failed) {
+            sessions.remove(session.id, session);
+            deleteParts(entry);
+            return null;
+        }
+        if (session.committed() < entry.size) {
+            Log.info("Envoi de " + entry.name + " incomplet, reprise possible à l'octet " + session.committed());
+            return null;
+        }
+        sessions.remove(session.id, session);
+        return new FileCatalog.Entry(entry.name, entry.size, session.checksum(), entry.createdAt, entry.generation,
+                entry.dataShards, entry.parityShards, entry.cellSize, entry.partSizes, entry.nodes);
+    }
+
+    // Abandonner les envois interrompus qui n'ont pas été repris à temps
+    private static void expireSessions() {
+        long now = System.currentTimeMillis();
+        for (UploadSession session : sessions.values()) {
+            synchronized (session) {
+                if (session.active || now - session.lastActive <= SEND_SESSION_TIMEOUT) {
+                    continue;
+                }
+            }
+            if (sessions.remove(session.id, session)) {
+                Log.info("Envoi interrompu de " + session.entry.name + " abandonné");
+                deleteParts(session.entry);
+            }
+        }
+    }
+
+    private static void handleReceiveCommand(DataInputStream dis, DataOutputStream dos) throws IOException {
         String fileName = dis.readUTF();
+        long offset = dis.readLong();
+        long length = dis.readLong(); // -1 : jusqu'à la fin du fichier
 
-        if (!fileList.contains(fileName)) {
+        FileCatalog.Entry entry = openVersion(fileName);
+        if (entry == null) {
             dos.writeBoolean(false); // Fichier non trouvé
-            System.out.println("Fichier non trouvé : " + fileName);
+            Log.info("Fichier non trouvé : " + fileName);
             return;
         }
 
-        dos.writeBoolean(true); // Fichier trouvé
+        try {
+            sendEntry(entry, offset, length, dos);
+        } finally {
+            closeVersion(entry);
+        }
+    }
 
-        // Récupérer les parties du fichier des sous-serveurs
-        File assembledFile = assembleFileFromSubServers(fileName);
+    // Version enregistrée sous ce nom (null : absent), dont les parties ne seront pas supprimées
+    // avant closeVersion même si elle est remplacée entre-temps
+    private static FileCatalog.Entry openVersion(String fileName) {
+        while (true) {
+            FileCatalog.Entry entry = catalog.get(fileName);
+            if (entry == null || entry.inline != null) {
+                return entry; // Pas de parties sur les sous-serveurs
+            }
+            synchronized (readers) {
+                // Toujours enregistrée : retire, appelé après son remplacement, verra cette lecture
+                if (catalog.get(fileName) == entry) {
+                    readers.merge(entry, 1, Integer::sum);
+                    return entry;
+                }
+            }
+        }
+    }
 
-        // Envoyer le fichier réassemblé au client
-        sendFileToClient(clientSocket, assembledFile);
+    // Fin d'une lecture ouverte par openVersion : la dernière lecture d'une version remplacée la supprime
+    private static void closeVersion(FileCatalog.Entry entry) {
+        if (entry == null || entry.inline != null) {
+            return;
+        }
+        synchronized (readers) {
+            if (readers.merge(entry, -1, (count, one) -> count + one == 0 ? null : count + one) != null
+                    || !retired.remove(entry)) {
+                return;
+            }
+        }
+        Log.info("Suppression différée de l'ancienne version de " + entry.name);
+        STRIPE_POOL.execute(() -> deleteParts(entry));
+    }
 
-        // Supprimer le fichier assemblé après l'envoi
-        assembledFile.delete();
-        System.out.println("Fichier assemblé supprimé.");
+    // Supprimer les parties d'une version remplacée, aussitôt ou après ses lectures en cours.
+    // Les requêtes DELETE aux sous-serveurs partent du pool STRIPE_POOL : l'appelant peut être
+    // un thread d'E/S du frontal NIO (petit fichier remplaçant un fichier réparti).
+    private static void retire(FileCatalog.Entry previous) {
+        synchronized (readers) {
+            if (readers.containsKey(previous)) {
+                retired.add(previous);
+                return;
+            }
+        }
+        STRIPE_POOL.execute(() -> deleteParts(previous));
+    }
 
-        // Retirer le fichier de la liste des fichiers disponibles
-        fileList.remove(fileName);
-        System.out.println("Fichier " + fileName + " retiré de la liste.");
+    // Envoyer la plage [offset, offset + length) du fichier, bornée à sa taille
+    private static void sendEntry(FileCatalog.Entry entry, long offset, long length, DataOutputStream dos) throws IOException {
+        sendEntry(entry, offset, length, dos, dos);
+    }
 
-        // Supprimer les parties du fichier des sous-serveurs
-        for (int i = 0; i < 3; i++) {
-            String partFileName = fileName + "_part" + (i + 1);
-            deleteFileFromSubServer(partFileName, SUB_SERVERS[i]);
+    // Idem, l'en-tête étant écrit et vidé sur dos avant que le contenu ne parte sur body
+    private static void sendEntry(FileCatalog.Entry entry, long offset, long length, DataOutputStream dos,
+                                  OutputStream body) throws IOException {
+        String fileName = entry.name;
+        long start = Math.min(Math.max(0, offset), entry.size);
+        long count = length < 0 ? entry.size - start : Math.min(length, entry.size - start);
+        if (entry.inline != null) {
+            dos.writeBoolean(true); // Fichier trouvé
+            dos.writeUTF(fileName);
+            dos.writeLong(entry.size);
+            dos.writeLong(entry.checksum); // Version du contenu
+            dos.writeLong(start);
+            dos.writeLong(count);
+            dos.flush();
+            body.write(entry.inline, (int) start, (int) count);
+            body.flush();
+            Log.info("Fichier " + fileName + " envoyé depuis le catalogue.");
+        } else {
+            // Lancer en parallèle la récupération des parties de données du fichier ; chacune
+            // doit annoncer la taille enregistrée au catalogue, sinon une partie de parité la remplace
+            StripeReader reader;
+            try {
+                reader = new StripeReader(entry, start, count,
+                        (i, partOffset, partLength) -> retrieveFileFromSubServer(entry.partName(i), entry.nodes[i], partOffset, partLength),
+                        readCache);
+            } catch (IOException e) {
+                Log.info("Erreur lors de la récupération du fichier : " + e.getMessage());
+                dos.writeBoolean(false);
+                dos.flush();
+                return;
+            }
+
+            try (reader) {
+                dos.writeBoolean(true); // Fichier trouvé
+
+                // Envoyer le fichier au client au fur et à mesure de l'arrivée des parties
+                sendFileToClient(dos, body, fileName, entry.size, entry.checksum, start, count, reader);
+            }
         }
     }
 
     private static void handleDeleteFile(DataInputStream dis, DataOutputStream dos) throws IOException {
         String fileName = dis.readUTF();
-        boolean allDeleted = true;
-    
-        for (int i = 0; i < 3; i++) {
-            String partFileName = STORAGE_DIR + "/" + fileName + "_part" + (i + 1);
-            File partFile = new File(partFileName);
-    
-            if (partFile.exists()) {
-                if (!partFile.delete()) {
-                    allDeleted = false;
-                    System.out.println("Erreur lors de la suppression de " + partFileName);
-                }
-            } else {
-                System.out.println("Fichier non trouvé : " + partFileName);
-            }
+        dos.writeUTF(deleteFile(fileName));
+    }
+
+    // Retirer le fichier du catalogue et supprimer ses parties ; message destiné au client
+    private static String deleteFile(String fileName) throws IOException {
+        FileCatalog.Entry entry = catalog.remove(fileName);
+        if (entry == null) {
+            Log.info("Fichier non trouvé : " + fileName);
+            return "Fichier non trouvé.";
         }
+        invalidateCache(fileName);
     
-        if (allDeleted) {
-            dos.writeUTF("Fichiers supprimés avec succès.");
+        if (deleteParts(entry)) {
+            return "Fichiers supprimés avec succès.";
         } else {
-            dos.writeUTF("Erreur lors de la suppression des fichiers.");
+            return "Erreur lors de la suppression des fichiers.";
         }
     }
 
-    private static void deleteFileFromSubServer(String fileName, String subServerAddress) throws IOException {
-        String[] subServerInfo = subServerAddress.split(":");
-        String host = subServerInfo[0];
-        int port = Integer.parseInt(subServerInfo[1]);
+    // Retirer du catalogue les fichiers dont la durée de conservation est écoulée, par lots de
+    // RETENTION_BATCH_SIZE, puis supprimer leurs parties en tâche de fond. Un fichier remplacé
+    // entre-temps par une nouvelle version n'est pas retiré.
+    private static void expireFiles() {
+        long deadline = System.currentTimeMillis() - RETENTION_TTL * 1000;
+        List<FileCatalog.Entry> batch = new ArrayList<>();
+        try {
+            for (FileCatalog.Entry entry : catalog.snapshot()) {
+                if (entry.createdAt < deadline && catalog.remove(entry)) {
+                    invalidateCache(entry.name);
+                    batch.add(entry);
+                    if (batch.size() == RETENTION_BATCH_SIZE) {
+                        deletePartsInBatch(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            deletePartsInBatch(batch);
+        } catch (IOException | RuntimeException e) {
+            // Ne pas interrompre les passages suivants
+            Log.info("Erreur lors du nettoyage des fichiers expirés : " + e);
+        }
+    }
 
-        try (Socket socket = new Socket(host, port);
-             DataOutputStream dos = new DataOutputStream(socket.getOutputStream())) {
+    // Supprimer les parties de plusieurs fichiers : les requêtes DELETE destinées à un même
+    // sous-serveur sont envoyées à la suite sur une seule connexion puis acquittées ensemble,
+    // les sous-serveurs étant traités en parallèle. Le lot est borné (RETENTION_BATCH_SIZE
+    // fichiers) pour que les réponses en attente tiennent dans les tampons des sockets.
+    private static void deletePartsInBatch(List<FileCatalog.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Map<String, List<String>> partsByNode = new LinkedHashMap<>();
+        for (FileCatalog.Entry entry : entries) {
+            for (int i = 0; i < entry.partSizes.length; i++) {
+                for (String subServerAddress : entry.nodes[i]) {
+                    partsByNode.computeIfAbsent(subServerAddress, node -> new ArrayList<>()).add(entry.partName(i));
+                }
+            }
+        }
+        List<Future<Integer>> results = new ArrayList<>();
+        for (Map.Entry<String, List<String>> node : partsByNode.entrySet()) {
+            results.add(STRIPE_POOL.submit(() -> deleteFilesFromSubServer(node.getValue(), node.getKey())));
+        }
+        int deleted = 0;
+        for (Future<Integer> result : results) {
+            try {
+                deleted += result.get();
+            } catch (ExecutionException e) {
+                Log.info("Erreur lors de la suppression d'un lot de parties : " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        Log.info(entries.size() + " fichiers expirés supprimés (" + deleted + " parties)");
+    }
 
-            // Envoyer la commande DELETE
-            dos.writeUTF("DELETE");
-            dos.writeUTF(fileName);
+    // Envoyer à la suite les DELETE des parties puis lire les acquittements ; nombre de parties
+    // supprimées. Le lot est rejoué sur une nouvelle connexion si celle du pool était fermée.
+    private static int deleteFilesFromSubServer(List<String> fileNames, String subServerAddress) throws IOException {
+        while (true) {
+            SubServerPool.Connection connection = subServerPool.acquire(subServerAddress);
+            try {
+                int[] requestIds = new int[fileNames.size()];
+                for (int i = 0; i < requestIds.length; i++) {
+                    requestIds[i] = connection.begin("DELETE");
+                    connection.out.writeUTF(fileNames.get(i));
+                }
+                connection.out.flush();
+                int deleted = 0;
+                for (int requestId : requestIds) {
+                    connection.expect(requestId);
+                    if (connection.in.readBoolean()) {
+                        deleted++;
+                    }
+                }
+                subServerPool.release(connection);
+                return deleted;
+            } catch (IOException e) {
+                boolean retry = connection.wasReused();
+                subServerPool.discard(connection);
+                if (!retry) {
+                    throw e;
+                }
+            }
+        }
+    }
 
-            System.out.println("Demande de suppression de " + fileName + " sur " + subServerAddress);
-        } catch (IOException e) {
-            System.out.println("Erreur lors de la suppression de " + fileName + " : " + e.getMessage());
+    private static void invalidateCache(String fileName) {
+        if (readCache != null) {
+            readCache.invalidate(fileName);
         }
     }
 
+    private static boolean deleteFileFromSubServer(String fileName, String subServerAddress) {
+        // Une connexion du pool peut avoir été fermée pendant son inactivité :
+        // la suppression est alors rejouée une fois sur une nouvelle connexion
+        for (int attempt = 0; attempt < 2; attempt++) {
+            SubServerPool.Connection connection = null;
+            try {
+                connection = subServerPool.acquire(subServerAddress);
+
+                // Envoyer la commande DELETE
+                int requestId = connection.begin("DELETE");
+                connection.out.writeUTF(fileName);
+                connection.out.flush();
+
+                Log.info("Demande de suppression de " + fileName + " sur " + subServerAddress);
+                connection.expect(requestId);
+                boolean deleted = connection.in.readBoolean();
+                subServerPool.release(connection);
+                return deleted;
+            } catch (IOException e) {
+                if (connection != null) {
+                    subServerPool.discard(connection);
+                }
+                if (connection == null || !connection.wasReused()) {
+                    Log.info("Erreur lors de la suppression de " + fileName + " : " + e.getMessage());
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
     
 
    
     
     
-    private static void sendFileToClient(Socket clientSocket, File file) throws IOException {
-        System.out.println("Envoi du fichier " + file.getName() + " au client...");
-    
-        try (DataOutputStream dos = new DataOutputStream(clientSocket.getOutputStream());
-             FileInputStream fis = new FileInputStream(file)) {
+    // La réponse annonce la version du fichier (CRC32C de son contenu) : le client ne
+    // complète une plage déjà reçue qu'avec des plages de la même version
+    private static void sendFileToClient(DataOutputStream dos, OutputStream body, String fileName, long fileSize, long version, long offset, long length,
+                                         StripeReader reader) throws IOException {
+        Log.info("Envoi du fichier " + fileName + " au client...");
     
-            dos.writeUTF(file.getName());
+        dos.writeUTF(fileName);
+        dos.writeLong(fileSize);
+        dos.writeLong(version);
+        dos.writeLong(offset);
+        dos.writeLong(length);
+        dos.flush();
+        Log.info("Taille du fichier envoyé : " + fileSize + " octets (plage " + offset + " + " + length + ")");
     
-            
-            long fileSize = file.length();
-            dos.writeLong(fileSize);
-            System.out.println("Taille du fichier envoyé : " + fileSize + " octets");
-    
-        
-            byte[] buffer = new byte[1024 * 1024]; 
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                dos.write(buffer, 0, bytesRead);
+        // Les rangées sont relayées dès leur arrivée, les parties étant
+        // préchargées en parallèle dans la limite de leur file d'attente
+        long start = System.nanoTime();
+        reader.transferTo(body);
+        body.flush();
+        Metrics.histogram("assembly_seconds").record(System.nanoTime() - start);
+        Log.info("Fichier envoyé avec succès.");
+    }
+  
+    // Découpage et emplacement d'un nouveau fichier
+    private static FileCatalog.Entry newEntry(String fileName, long fileSize) {
+        // Le fichier est découpé en blocs distribués tour à tour aux k parties de données :
+        // un fichier d'un seul bloc tient sur un sous-serveur, un gros fichier est réparti
+        // sur autant de sous-serveurs que possible
+        int dataShards = (int) Math.max(1, Math.min(maxDataShards(), (fileSize + BLOCK_SIZE - 1) / BLOCK_SIZE));
+        StripeLayout layout = new StripeLayout(fileSize, dataShards, EC_PARITY_SHARDS, BLOCK_SIZE);
+        int shardCount = layout.shardCount();
+        long[] partSizes = new long[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            partSizes[i] = layout.shardLength(i);
+        }
+        String[][] nodes = placement.select(fileName, shardCount, REPLICATION);
+        // Génération nouvelle à chaque envoi, y compris après un redémarrage (horloge)
+        long generation = lastGeneration.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+        return new FileCatalog.Entry(fileName, fileSize, 0, System.currentTimeMillis(), generation,
+                dataShards, EC_PARITY_SHARDS, BLOCK_SIZE, partSizes, nodes);
+    }
+
+    // Recevoir sur une seule connexion le fichier à partir de l'octet déjà validé de la session ;
+    // retourne l'entrée complète, ou null si un sous-serveur a refusé une partie.
+    // Si la connexion du client est perdue, la session est conservée pour une reprise.
+    private static FileCatalog.Entry splitAndSendToSubServers(DataInputStream dis, UploadSession session) throws IOException {
+        long rows = session.entry.layout().rows();
+        long committed = session.committed();
+        long row = committed == session.entry.size ? rows : committed / session.rowSize;
+        try {
+            receiveRows(dis, session, row, rows);
+        } finally {
+            releaseSession(session);
+        }
+        return completeSession(session);
+    }
+
+    // Recevoir les rangées [row, endRow) par fenêtres validées une à une dans la session ;
+    // faux si un sous-serveur a refusé une partie
+    private static boolean receiveRows(DataInputStream dis, UploadSession session, long row, long endRow) throws IOException {
+        FileCatalog.Entry entry = session.entry;
+        StripeLayout layout = entry.layout();
+        ErasureCoder coder = new ErasureCoder(layout.dataShards, layout.parityShards);
+        long rows = layout.rows();
+        // En mode déduplication le manifeste d'une partie est enregistré d'un seul tenant
+        long rowsPerWindow = DEDUP ? Math.max(1, rows) : Math.max(1, SEND_COMMIT_INTERVAL / session.rowSize);
+
+        try {
+            // Un fichier vide a tout de même une partie (vide) par sous-serveur
+            if (row < endRow || rows == 0) {
+                do {
+                    long windowEnd = Math.min(endRow, row + rowsPerWindow);
+                    // Somme de contrôle calculée au passage, sans relire les données
+                    CRC32C checksum = new CRC32C();
+                    if (!sendWindow(dis, entry, layout, coder, row, windowEnd, checksum)) {
+                        session.failed = true;
+                        return false;
+                    }
+                    session.commit(row * session.rowSize, Math.min(entry.size, windowEnd * session.rowSize), checksum.getValue());
+                    row = windowEnd;
+                } while (row < endRow);
+            }
+            return true;
+        } catch (IOException e) {
+            if (session.id.isEmpty()) {
+                deleteParts(entry);
             }
+            throw e;
         }
-        System.out.println("Fichier envoyé avec succès.");
     }
-  
-    private static void splitAndSendToSubServers(File file, String fileName) {
-        long fileSize = file.length();
-        long partSize = fileSize / 3;
-        long remainder = fileSize % 3;
+
+    // Recevoir les rangées [row, endRow) : chaque rangée de k blocs est codée dès sa réception
+    // et ses k+m cellules sont relayées en parallèle aux sous-serveurs, dont les connexions
+    // STORE sont ouvertes dès le début de la fenêtre (longueur de chaque plage connue).
+    // Les cellules sont des tampons de BufferPool, rendus par l'envoi une fois transmis.
+    // Une partie répliquée est envoyée en parallèle à chacun de ses sous-serveurs, chaque
+    // réplica ayant sa propre copie des cellules, et n'est validée que si tous la confirment.
+    private static boolean sendWindow(DataInputStream dis, FileCatalog.Entry entry, StripeLayout layout, ErasureCoder coder,
+                                      long row, long endRow, CRC32C checksum) throws IOException {
+        int shardCount = layout.shardCount();
+        List<List<BlockingQueue<ByteBuffer>>> queues = new ArrayList<>();
+        List<List<Future<Boolean>>> acks = new ArrayList<>();
     
-        try (FileInputStream fis = new FileInputStream(file)) {
-            for (int i = 0; i < 3; i++) {
-                long start = i * partSize;
-                long end = (i == 2) ? fileSize : start + partSize;
+        for (int i = 0; i < shardCount; i++) {
+            String partFileName = entry.partName(i);
+            long offset = layout.shardOffset(row);
+            long length = endRow > row ? layout.shardOffset(endRow - 1) + layout.cellLength(endRow - 1, i) - offset : 0;
+            long partLength = entry.partSizes[i];
+            List<BlockingQueue<ByteBuffer>> partQueues = new ArrayList<>();
+            List<Future<Boolean>> partAcks = new ArrayList<>();
+            for (String subServerAddress : entry.nodes[i]) {
+                // Au plus 4 Mo (et au moins 2 blocs) en attente par réplica
+                BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(Math.max(2, 4 * 1024 * 1024 / layout.cellSize));
+                partQueues.add(queue);
+                partAcks.add(STRIPE_POOL.submit(() -> DEDUP
+                        ? storeChunksOnSubServer(partFileName, length, layout.cellSize, subServerAddress, queue)
+                        : storeFileOnSubServer(partFileName, offset, length, partLength, layout.cellSize, subServerAddress, queue)));
+            }
+            queues.add(partQueues);
+            acks.add(partAcks);
+        }
     
-                if (i == 2) {
-                    end += remainder;
+        // Cellules de la rangée en cours, tant qu'elles ne sont pas confiées aux envois
+        byte[][] cells = new byte[layout.dataShards][];
+        byte[][] parity = new byte[layout.parityShards][];
+        try {
+            for (; row < endRow; row++) {
+                // Cellules complétées par des zéros jusqu'à la longueur de la rangée pour le codage
+                int rowLength = layout.cellLength(row, 0);
+                for (int j = 0; j < cells.length; j++) {
+                    cells[j] = BufferPool.acquire(rowLength);
+                    int length = layout.cellLength(row, j);
+                    dis.readFully(cells[j], 0, length);
+                    checksum.update(cells[j], 0, length);
+                    Arrays.fill(cells[j], length, rowLength, (byte) 0);
                 }
-    
-                String partFileName = STORAGE_DIR + "/" + fileName + "_part" + (i + 1);
-                File partFile = new File(partFileName);
-    
-                try (FileOutputStream fos = new FileOutputStream(partFile)) {
-                    fis.getChannel().position(start); 
-                    byte[] buffer = new byte[1024 * 1024]; 
-                    int bytesRead;
-                    long remaining = end - start;
-    
-                    while (remaining > 0 && (bytesRead = fis.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
-                        fos.write(buffer, 0, bytesRead);
-                        remaining -= bytesRead;
+                for (int p = 0; p < parity.length; p++) {
+                    parity[p] = BufferPool.acquire(rowLength);
+                }
+                coder.encode(cells, parity, rowLength);
+
+                for (int j = 0; j < cells.length; j++) {
+                    int length = layout.cellLength(row, j);
+                    if (length > 0) {
+                        enqueueReplicas(queues.get(j), acks.get(j), cells[j], length);
+                    } else {
+                        BufferPool.release(cells[j]);
                     }
+                    cells[j] = null;
                 }
+                for (int p = 0; p < parity.length; p++) {
+                    enqueueReplicas(queues.get(cells.length + p), acks.get(cells.length + p), parity[p], rowLength);
+                    parity[p] = null;
+                }
+            }
+            for (int i = 0; i < shardCount; i++) {
+                for (int r = 0; r < queues.get(i).size(); r++) {
+                    enqueue(queues.get(i).get(r), END_OF_PART, acks.get(i).get(r));
+                }
+            }
     
-                System.out.println("Partie " + (i + 1) + " créée : " + partFileName);
+            // Attendre la confirmation de chaque sous-serveur
+            boolean allStored = true;
+            for (int i = 0; i < shardCount; i++) {
+                for (int r = 0; r < acks.get(i).size(); r++) {
+                    if (!waitForAck(acks.get(i).get(r))) {
+                        allStored = false;
+                        Log.info("Partie " + (i + 1) + " non confirmée par " + entry.nodes[i][r]);
+                    }
+                }
             }
+            return allStored;
         } catch (IOException e) {
-            System.out.println("Erreur lors de la division du fichier : " + e.getMessage());
-        }
-    }
-    
-    private static File assembleFileFromSubServers(String fileName) throws IOException {
-        File assembledFile = new File("assembled_" + fileName);
-        System.out.println("Assemblage du fichier " + assembledFile.getName());
-    
-        try (FileOutputStream fos = new FileOutputStream(assembledFile)) {
-            long totalSize = 0; 
-    
-            for (int i = 0; i < 3; i++) {
-                String partFileName = fileName + "_part" + (i + 1);
-                System.out.println("Récupération de la partie : " + partFileName);
-    
-                File partFile = retrieveFileFromSubServer(partFileName, SUB_SERVERS[i]);
-                if (partFile != null) {
-                    try (FileInputStream fis = new FileInputStream(partFile)) {
-                        byte[] buffer = new byte[1024 * 1024]; // Buffer de 1 Mo
-                        int bytesRead;
-                        while ((bytesRead = fis.read(buffer)) != -1) {
-                            fos.write(buffer, 0, bytesRead);
-                            totalSize += bytesRead;
+            for (List<Future<Boolean>> partAcks : acks) {
+                for (Future<Boolean> ack : partAcks) {
+                    ack.cancel(true);
+                }
+            }
+            // Rendre les cellules restées dans les files des envois annulés
+            for (List<BlockingQueue<ByteBuffer>> partQueues : queues) {
+                for (BlockingQueue<ByteBuffer> queue : partQueues) {
+                    ByteBuffer chunk;
+                    while ((chunk = queue.poll()) != null) {
+                        if (chunk != END_OF_PART) {
+                            BufferPool.release(chunk.array());
                         }
                     }
-                    System.out.println("Partie " + (i + 1) + " ajoutée au fichier assemblé.");
-                    partFile.delete(); // Supprimer la partie après l'avoir ajoutée
-                } else {
-                    System.out.println("Partie " + (i + 1) + " non trouvée.");
-                    throw new IOException("Partie manquante : " + partFileName);
                 }
             }
-    
-            System.out.println("Fichier assemblé créé : " + assembledFile.getName() + " (" + totalSize + " octets)");
-        } catch (IOException e) {
-            System.out.println("Erreur lors de l'assemblage du fichier : " + e.getMessage());
             throw e;
+        } finally {
+            // Lecture du client interrompue en cours de rangée
+            for (byte[] cell : cells) {
+                BufferPool.release(cell);
+            }
+            for (byte[] cell : parity) {
+                BufferPool.release(cell);
+            }
         }
-    
-        return assembledFile;
     }
 
+    // Confier une cellule aux envois de chaque réplica de sa partie : le premier reçoit le
+    // tampon lui-même, les suivants une copie, chaque envoi rendant le sien à BufferPool.
+    // En cas d'échec, la cellule reste à l'appelant
+    private static void enqueueReplicas(List<BlockingQueue<ByteBuffer>> queues, List<Future<Boolean>> acks,
+                                        byte[] cell, int length) throws IOException {
+        for (int r = queues.size() - 1; r > 0; r--) {
+            byte[] copy = BufferPool.acquire(length);
+            System.arraycopy(cell, 0, copy, 0, length);
+            try {
+                enqueue(queues.get(r), ByteBuffer.wrap(copy, 0, length), acks.get(r));
+            } catch (IOException e) {
+                BufferPool.release(copy);
+                throw e;
+            }
+        }
+        enqueue(queues.get(0), ByteBuffer.wrap(cell, 0, length), acks.get(0));
+    }
+
+    private static void enqueue(BlockingQueue<ByteBuffer> queue, ByteBuffer chunk, Future<Boolean> ack) throws IOException {
+        try {
+            // Ne pas bloquer indéfiniment si l'envoi vers le sous-serveur a échoué
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (ack.isDone()) {
+                    throw new IOException("Envoi de la partie interrompu");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Envoi de la partie interrompu");
+        }
+    }
+
+    private static boolean waitForAck(Future<Boolean> ack) {
+        try {
+            return ack.get();
+        } catch (ExecutionException e) {
+            Log.info("Erreur lors de l'envoi d'une partie : " + e.getCause().getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Chaque bloc de la file est une cellule de cellSize octets (ou la dernière, plus courte) :
+    // sa somme de contrôle est calculée au passage et envoyée à la suite des données.
+    // Le tampon de chaque bloc est rendu à BufferPool dès son envoi.
+    private static boolean storeFileOnSubServer(String fileName, long offset, long length, long partLength, int cellSize,
+                                                String subServerAddress, BlockingQueue<ByteBuffer> queue) throws IOException, InterruptedException {
+        SubServerPool.Connection connection = subServerPool.acquire(subServerAddress);
+        try {
+            DataOutputStream dos = connection.out;
     
-    private static File retrieveFileFromSubServer(String fileName, String subServerAddress) throws IOException {
-        String[] subServerInfo = subServerAddress.split(":");
-        String host = subServerInfo[0];
-        int port = Integer.parseInt(subServerInfo[1]);
-    
-        System.out.println("Tentative de récupération de " + fileName + " depuis " + subServerAddress);
-    
-        try (Socket socket = new Socket(host, port);
-             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
-    
-            // Demander la partie du fichier
-            dos.writeUTF("RETRIEVE");
+            // Envoyer la commande STORE suivie de l'en-tête de la plage
+            int requestId = connection.begin("STORE");
             dos.writeUTF(fileName);
+            dos.writeLong(offset);
+            dos.writeLong(length);
+            dos.writeLong(partLength);
+            dos.flush();
     
-            // Recevoir la taille de la partie
-            long fileSize = dis.readLong();
-            System.out.println("Taille de la partie " + fileName + " : " + fileSize + " octets");
+            // Relayer les blocs reçus du client vers le sous-serveur
+            List<Integer> checksums = new ArrayList<>();
+            ByteBuffer chunk;
+            while ((chunk = queue.take()) != END_OF_PART) {
+                dos.write(chunk.array(), 0, chunk.limit());
+                checksums.add(checksum(chunk.array(), chunk.limit()));
+                BufferPool.release(chunk.array());
+            }
+            writeChecksums(dos, cellSize, checksums);
+            dos.flush();
     
-            // Recevoir la partie du fichier
-            File partFile = new File(fileName);
-            try (FileOutputStream fos = new FileOutputStream(partFile)) {
-                byte[] buffer = new byte[1024 * 1024]; // Buffer de 1 Mo
-                int bytesRead;
-                long totalBytesRead = 0;
-                while (totalBytesRead < fileSize && (bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalBytesRead))) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                    totalBytesRead += bytesRead;
+            // Attendre l'acquittement du sous-serveur
+            connection.expect(requestId);
+            boolean stored = connection.in.readBoolean();
+            subServerPool.release(connection);
+            Log.info("Partie " + fileName + " envoyée à " + subServerAddress + " (" + length + " octets)");
+            return stored;
+        } catch (IOException | InterruptedException e) {
+            subServerPool.discard(connection);
+            throw e;
+        }
+    }
+
+    // Envoi d'une partie en mode déduplication : elle est découpée en morceaux au fil de la
+    // réception, le sous-serveur indique par lots les morceaux qu'il ne possède pas encore
+    // et seuls ceux-ci sont transmis, puis le manifeste de la partie est enregistré
+    private static boolean storeChunksOnSubServer(String fileName, long length, int cellSize,
+                                                  String subServerAddress, BlockingQueue<ByteBuffer> queue) throws IOException, InterruptedException {
+        SubServerPool.Connection connection = subServerPool.acquire(subServerAddress);
+        try {
+            ContentChunker chunker = new ContentChunker(DEDUP_CHUNK_SIZE / 4, DEDUP_CHUNK_SIZE, DEDUP_CHUNK_SIZE * 4);
+            List<byte[]> batch = new ArrayList<>();
+            List<ChunkStore.ChunkRef> manifest = new ArrayList<>();
+            long batchBytes = 0;
+            long sentBytes = 0;
+            List<Integer> checksums = new ArrayList<>();
+    
+            ByteBuffer data;
+            while ((data = queue.take()) != END_OF_PART) {
+                checksums.add(checksum(data.array(), data.limit()));
+                chunker.update(data.array(), 0, data.limit(), batch::add);
+                BufferPool.release(data.array());
+                batchBytes += data.limit();
+                if (batchBytes >= DEDUP_BATCH_SIZE) {
+                    sentBytes += sendMissingChunks(connection, batch, manifest);
+                    batch.clear();
+                    batchBytes = 0;
                 }
+            }
+            chunker.finish(batch::add);
+            sentBytes += sendMissingChunks(connection, batch, manifest);
     
-                if (totalBytesRead == fileSize) {
-                    System.out.println("Partie " + fileName + " récupérée avec succès.");
-                    return partFile;
-                } else {
-                    System.out.println("Erreur : la partie " + fileName + " est incomplète.");
-                    return null;
+            // Enregistrer le manifeste de la partie
+            DataOutputStream dos = connection.out;
+            int requestId = connection.begin("COMMIT");
+            dos.writeUTF(fileName);
+            dos.writeInt(manifest.size());
+            for (ChunkStore.ChunkRef chunk : manifest) {
+                dos.write(chunk.hash);
+                dos.writeInt(chunk.length);
+            }
+            writeChecksums(dos, cellSize, checksums);
+            dos.flush();
+            connection.expect(requestId);
+            boolean stored = connection.in.readBoolean();
+            subServerPool.release(connection);
+            Log.info("Partie " + fileName + " envoyée à " + subServerAddress + " (" + manifest.size()
+                    + " morceaux, " + sentBytes + " octets transmis sur " + length + ")");
+            return stored;
+        } catch (IOException | InterruptedException e) {
+            subServerPool.discard(connection);
+            throw e;
+        }
+    }
+
+    private static int checksum(byte[] cell, int length) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(cell, 0, length);
+        return (int) checksum.getValue();
+    }
+
+    // Sommes de contrôle des cellules d'une partie, à la suite d'un STORE ou d'un COMMIT
+    private static void writeChecksums(DataOutputStream dos, int cellSize, List<Integer> checksums) throws IOException {
+        dos.writeInt(cellSize);
+        dos.writeInt(checksums.size());
+        for (int checksum : checksums) {
+            dos.writeInt(checksum);
+        }
+    }
+
+    // Demander au sous-serveur les morceaux absents du lot et les lui envoyer ;
+    // retourne le nombre d'octets transmis
+    private static long sendMissingChunks(SubServerPool.Connection connection, List<byte[]> batch, List<ChunkStore.ChunkRef> manifest) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        DataOutputStream dos = connection.out;
+        List<byte[]> hashes = new ArrayList<>(batch.size());
+        int requestId = connection.begin("HAS");
+        dos.writeInt(batch.size());
+        for (byte[] chunk : batch) {
+            byte[] hash = ContentChunker.hash(chunk);
+            hashes.add(hash);
+            dos.write(hash);
+            manifest.add(new ChunkStore.ChunkRef(hash, chunk.length));
+        }
+        dos.flush();
+        connection.expect(requestId);
+        int[] missing = new int[connection.in.readInt()];
+        for (int i = 0; i < missing.length; i++) {
+            missing[i] = connection.in.readInt();
+        }
+    
+        // Envoyer les morceaux manquants à la suite, puis lire les acquittements
+        long sentBytes = 0;
+        int[] requestIds = new int[missing.length];
+        for (int i = 0; i < missing.length; i++) {
+            byte[] chunk = batch.get(missing[i]);
+            requestIds[i] = connection.begin("PUTCHUNK");
+            dos.write(hashes.get(missing[i]));
+            dos.writeInt(chunk.length);
+            dos.write(chunk);
+            sentBytes += chunk.length;
+        }
+        dos.flush();
+        for (int id : requestIds) {
+            connection.expect(id);
+            if (!connection.in.readBoolean()) {
+                throw new IOException("Morceau refusé par " + connection.address);
+            }
+        }
+        return sentBytes;
+    }
+
+    private static boolean deleteParts(FileCatalog.Entry entry) {
+        boolean allDeleted = true;
+        for (int i = 0; i < entry.partSizes.length; i++) {
+            for (String subServerAddress : entry.nodes[i]) {
+                if (!deleteFileFromSubServer(entry.partName(i), subServerAddress)) {
+                    allDeleted = false;
                 }
             }
-        } catch (IOException e) {
-            System.out.println("Erreur lors de la récupération de la partie " + fileName + " : " + e.getMessage());
-            return null;
         }
+        return allDeleted;
+    }
+    
+    private static PartFetch retrieveFileFromSubServer(String fileName, String[] replicas, long offset, long length) {
+        Log.info("Tentative de récupération de " + fileName + " depuis " + String.join(", ", replicas));
+        return new PartFetch(fileName, offset, length, replicas, subServerPool, STRIPE_POOL);
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+// Géométrie du découpage d'un fichier en parties.
+// Le fichier est découpé en rangées de k cellules de cellSize octets : la cellule j
+// de chaque rangée va dans la partie de données j, et chaque rangée reçoit m cellules
+// de parité, de la longueur de sa première cellule, dans les parties k à k+m-1.
+// Seule la dernière rangée peut être incomplète. Une taille de cellule nulle désigne
+// l'ancien découpage en parties contiguës, sans parité.
+class StripeLayout {
+    final long fileSize;
+    final int dataShards;
+    final int parityShards;
+    final int cellSize;
+
+    StripeLayout(long fileSize, int dataShards, int parityShards, int cellSize) {
+        this.fileSize = fileSize;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.cellSize = cellSize;
+    }
+
+    int shardCount() {
+        return dataShards + parityShards;
+    }
+
+    long rows() {
+        long rowSize = (long) dataShards * cellSize;
+        return (fileSize + rowSize - 1) / rowSize;
+    }
+
+    // Longueur réelle de la cellule de la partie shard dans la rangée row
+    int cellLength(long row, int shard) {
+        if (shard >= dataShards) {
+            return cellLength(row, 0);
+        }
+        long start = (row * dataShards + shard) * cellSize;
+        return (int) Math.max(0, Math.min(cellSize, fileSize - start));
+    }
+
+    // Position, dans sa partie, de la cellule de la rangée row (toutes les rangées
+    // précédentes sont complètes)
+    long shardOffset(long row) {
+        return row * cellSize;
+    }
+
+    long shardLength(int shard) {
+        long rows = rows();
+        if (rows == 0) {
+            return 0;
+        }
+        return shardOffset(rows - 1) + cellLength(rows - 1, shard);
+    }
+}
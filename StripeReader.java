@@ -0,0 +1,280 @@
+import java.io.*;
+import java.util.*;
+
+// Lecture d'un fichier découpé en parties, éventuellement avec parité, en entier ou par plage.
+// Seules les rangées qui recouvrent la plage demandée sont récupérées. Les k parties de
+// données sont demandées en premier ; une partie absente ou en erreur, à l'ouverture comme
+// en cours de transfert, est remplacée par la partie de parité suivante et les cellules
+// manquantes sont reconstruites rangée par rangée. Chaque cellule lue est vérifiée avec la
+// somme de contrôle enregistrée par le sous-serveur : une cellule altérée est traitée comme
+// une partie interrompue, redemandée une fois à son sous-serveur puis remplacée par la parité.
+// Avec un cache de lecture, les rangées déjà en cache sont servies sans interroger les
+// sous-serveurs : les parties ne sont demandées que pour les suites de rangées absentes
+// du cache, et les rangées lues y sont ajoutées.
+// Les cellules d'une lecture sont des tampons de BufferPool, rendus à la fin de la plage.
+class StripeReader implements Closeable {
+    // Ouvre la récupération de la plage [offset, offset + length) de la partie shard
+    interface PartOpener {
+        PartFetch open(int shard, long offset, long length);
+    }
+
+    private final FileCatalog.Entry entry;
+    private final StripeLayout layout;
+    private final PartOpener opener;
+    private final ReadCache cache; // null : sans cache
+    private final long rangeStart;
+    private final long rangeEnd;
+    private final long firstRow;
+    private final long endRow;   // Rangée suivant la dernière rangée lue
+    private long runEnd;         // Fin des rangées demandées aux parties ouvertes
+    private final PartFetch[] parts;
+    private final int[] chosen;  // Parties lues, dans l'ordre attendu par le décodeur
+    private final boolean[] retried; // Parties déjà redemandées après une erreur
+    private int nextShard;       // Prochaine partie de parité non utilisée
+    private ErasureCoder coder;
+    private ErasureCoder.Decoder decoder;
+
+    // Lance la récupération de la plage [offset, offset + length) et attend que chaque
+    // partie retenue ait annoncé sa taille (si la première rangée n'est pas en cache)
+    StripeReader(FileCatalog.Entry entry, long offset, long length, PartOpener opener, ReadCache cache) throws IOException {
+        this.entry = entry;
+        this.layout = entry.layout();
+        this.opener = opener;
+        this.cache = cache != null && cache.admits(entry) ? cache : null;
+        this.rangeStart = offset;
+        this.rangeEnd = offset + length;
+        this.parts = new PartFetch[entry.partSizes.length];
+        this.chosen = new int[entry.dataShards];
+        this.retried = new boolean[entry.partSizes.length];
+        this.nextShard = entry.dataShards;
+        if (layout.cellSize == 0 || length == 0) {
+            this.firstRow = 0;
+            this.endRow = 0;
+        } else {
+            long rowSize = (long) layout.dataShards * layout.cellSize;
+            this.firstRow = offset / rowSize;
+            this.endRow = (rangeEnd + rowSize - 1) / rowSize;
+        }
+        try {
+            if (layout.cellSize == 0) {
+                openContiguous();
+            } else {
+                for (int i = 0; i < entry.dataShards; i++) {
+                    chosen[i] = i;
+                }
+                if (this.cache == null || firstRow == endRow || !this.cache.contains(entry, firstRow)) {
+                    openRun(firstRow);
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Écrire la plage demandée, reconstruite si nécessaire
+    void transferTo(OutputStream out) throws IOException {
+        if (layout.cellSize == 0) {
+            // Ancien découpage : parties contiguës, relayées l'une après l'autre
+            for (PartFetch part : parts) {
+                if (part != null) {
+                    part.transferTo(out);
+                }
+            }
+            return;
+        }
+        int cellSize = layout.cellSize;
+        byte[][] cells = new byte[parts.length][];
+        byte[][] data = new byte[layout.dataShards][];
+        for (int j = 0; j < data.length; j++) {
+            data[j] = cells[j] = BufferPool.acquire(cellSize);
+        }
+        try {
+            transferRows(out, cells, data);
+        } finally {
+            for (byte[] cell : cells) {
+                BufferPool.release(cell);
+            }
+        }
+    }
+
+    private void transferRows(OutputStream out, byte[][] cells, byte[][] data) throws IOException {
+        byte[][] available = new byte[layout.dataShards][];
+        int[] lengths = new int[layout.dataShards];
+        for (long row = firstRow; row < endRow; row++) {
+            if (row >= runEnd) {
+                // Hors des rangées demandées aux parties : elle était en cache à leur ouverture
+                if (cache.get(entry, row, data)) {
+                    writeRow(out, row, data);
+                    continue;
+                }
+                openRun(row);
+            }
+            int rowLength = layout.cellLength(row, 0);
+            for (int j = 0; j < chosen.length; j++) {
+                readCell(j, row, rowLength, cells);
+            }
+            if (decoder == null) {
+                decoder = coder().decoder(chosen);
+            }
+            if (!decoder.isIdentity()) {
+                for (int j = 0; j < chosen.length; j++) {
+                    available[j] = cells[chosen[j]];
+                }
+                decoder.decode(available, data, rowLength);
+            }
+            if (cache != null) {
+                for (int j = 0; j < lengths.length; j++) {
+                    lengths[j] = layout.cellLength(row, j);
+                }
+                cache.put(entry, row, data, lengths);
+            }
+            writeRow(out, row, data);
+        }
+    }
+
+    // Ne garder de chaque cellule de la rangée que la partie comprise dans la plage
+    private void writeRow(OutputStream out, long row, byte[][] data) throws IOException {
+        int cellSize = layout.cellSize;
+        long rowSize = (long) layout.dataShards * cellSize;
+        for (int j = 0; j < data.length; j++) {
+            long cellStart = row * rowSize + (long) j * cellSize;
+            long from = Math.max(rangeStart, cellStart);
+            long to = Math.min(rangeEnd, cellStart + layout.cellLength(row, j));
+            if (from < to) {
+                out.write(data[j], (int) (from - cellStart), (int) (to - from));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (PartFetch part : parts) {
+            if (part != null) {
+                part.close();
+            }
+        }
+    }
+
+    // Ancien découpage : ouvrir la plage de chaque partie qui recouvre la plage demandée
+    private void openContiguous() throws IOException {
+        long partStart = 0;
+        for (int i = 0; i < parts.length; i++) {
+            long from = Math.max(rangeStart, partStart);
+            long to = Math.min(rangeEnd, partStart + entry.partSizes[i]);
+            if (from < to) {
+                parts[i] = opener.open(i, from - partStart, to - from);
+                if (parts[i].size() != to - from) {
+                    throw new IOException("Taille inattendue pour " + entry.partName(i));
+                }
+            }
+            partStart += entry.partSizes[i];
+        }
+    }
+
+    // Demander aux parties retenues les rangées [row, runEnd), runEnd étant la première rangée
+    // suivante déjà en cache (la fin de la plage sans cache), et attendre leur taille
+    private void openRun(long row) throws IOException {
+        runEnd = Math.min(endRow, row + 1);
+        while (runEnd < endRow && (cache == null || !cache.contains(entry, runEnd))) {
+            runEnd++;
+        }
+        for (int j = 0; j < chosen.length; j++) {
+            if (parts[chosen[j]] != null) {
+                parts[chosen[j]].close();
+            }
+            parts[chosen[j]] = open(chosen[j], row);
+        }
+        for (int j = 0; j < chosen.length; j++) {
+            if (!checkSize(chosen[j], row)) {
+                replace(j, row);
+            }
+        }
+    }
+
+    // Ouvrir la partie shard à partir de la rangée row, jusqu'à la fin des rangées demandées
+    private PartFetch open(int shard, long row) {
+        return opener.open(shard, layout.shardOffset(row), expectedLength(shard, row));
+    }
+
+    private long expectedLength(int shard, long row) {
+        if (row >= runEnd) {
+            return 0;
+        }
+        return layout.shardOffset(runEnd - 1) + layout.cellLength(runEnd - 1, shard) - layout.shardOffset(row);
+    }
+
+    // Lire la cellule de la rangée row de la j-ième partie retenue, complétée par des zéros
+    private void readCell(int j, long row, int rowLength, byte[][] cells) throws IOException {
+        while (true) {
+            int shard = chosen[j];
+            if (cells[shard] == null) {
+                cells[shard] = BufferPool.acquire(layout.cellSize);
+            }
+            int length = layout.cellLength(row, shard);
+            try {
+                parts[shard].readFully(cells[shard], 0, length);
+                if (!parts[shard].verify(layout.shardOffset(row), cells[shard], length)) {
+                    Metrics.counter("checksum_failures_total").increment();
+                    throw new IOException("somme de contrôle incorrecte à la rangée " + row);
+                }
+                Arrays.fill(cells[shard], length, rowLength, (byte) 0);
+                return;
+            } catch (IOException e) {
+                Log.info("Partie " + entry.partName(shard) + " interrompue : " + e.getMessage());
+                if (!retry(shard, row)) {
+                    replace(j, row);
+                }
+            }
+        }
+    }
+
+    // Redemander une fois la partie shard à partir de la rangée row (erreur passagère du réseau) ;
+    // faux si elle a déjà été redemandée ou si le sous-serveur ne répond plus
+    private boolean retry(int shard, long row) {
+        if (retried[shard]) {
+            return false;
+        }
+        retried[shard] = true;
+        Metrics.counter("part_retries_total").increment();
+        parts[shard].close();
+        parts[shard] = open(shard, row);
+        return checkSize(shard, row);
+    }
+
+    // Remplacer la j-ième partie retenue par une partie de parité, lue à partir de la rangée row
+    private void replace(int j, long row) throws IOException {
+        parts[chosen[j]].close();
+        while (true) {
+            if (nextShard >= parts.length) {
+                throw new IOException("Trop de parties indisponibles pour reconstruire " + entry.name);
+            }
+            int shard = nextShard++;
+            parts[shard] = open(shard, row);
+            if (!checkSize(shard, row)) {
+                parts[shard].close();
+                continue;
+            }
+            Log.info("Partie " + entry.partName(chosen[j]) + " remplacée par " + entry.partName(shard));
+            Metrics.counter("parts_replaced_total").increment();
+            chosen[j] = shard;
+            decoder = null;
+            return;
+        }
+    }
+
+    private boolean checkSize(int shard, long row) {
+        try {
+            return parts[shard].size() == expectedLength(shard, row);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private ErasureCoder coder() {
+        if (coder == null) {
+            coder = new ErasureCoder(layout.dataShards, layout.parityShards);
+        }
+        return coder;
+    }
+}
@@ -1,42 +1,117 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
 
+// Un sous-serveur stocke les parties des fichiers dans son répertoire. Le port et le
+// répertoire sont propres à chaque instance (plusieurs sous-serveurs peuvent tourner dans
+// un même processus, voir LoadGenerator) ; les autres réglages sont communs au processus.
 public class SubServer {
-    private static int port; // Port sur lequel le sous-serveur écoute
-    private static String STORAGE_DIR; // Répertoire de stockage des fichiers décomposés
+    private static int SUB_SERVER_PORT; // Port et répertoire de stockage lus dans la configuration
+    private static String STORAGE_DIR;
+    // Limites d'exécution des connexions du serveur principal
+    private static int ACCEPT_BACKLOG = 50;
+    private static String EXECUTOR_MODE = "fixed";
+    private static int MAX_IN_FLIGHT = 64;
+    private static int MAX_QUEUED = 256;
+    // Délai après lequel une connexion persistante inactive est fermée (ms)
+    private static final int IDLE_TIMEOUT = 120000;
+    // Codecs acceptés pour les connexions du serveur principal, et codec des morceaux stockés
+    private static String COMPRESSION = Codec.NONE;
+    private static String STORAGE_COMPRESSION = Codec.NONE;
+    // Fichier annexe d'une partie : taille des blocs puis CRC32C de chaque bloc, calculés
+    // par le serveur principal sur les cellules qu'il relaie et vérifiés par lui à la lecture
+    private static final String CHECKSUM_SUFFIX = ".crc";
+    // Mesures : port HTTP local (0 : aucun) et intervalle des résumés dans le journal (secondes, 0 : aucun)
+    private static int METRICS_PORT = 0;
+    private static long METRICS_SNAPSHOT_INTERVAL = 0;
+    // Tampons inactifs conservés pour être réutilisés (octets)
+    private static long BUFFER_POOL_SIZE = 64L * 1024 * 1024;
+    private static long BUFFER_POOL_BUDGET = 512L * 1024 * 1024;
+    // Débit global du sous-serveur (octets/s, 0 : illimité), limites et poids par commande
+    private static long BANDWIDTH_LIMIT = 0;
+    private static String COMMAND_BANDWIDTH_LIMITS = "";
+    private static String BANDWIDTH_WEIGHTS = "";
+
+    private final int port; // Port sur lequel le sous-serveur écoute
+    private final String storageDir; // Répertoire de stockage des fichiers décomposés
+    private ChunkStore chunkStore; // Parties stockées par morceaux dédupliqués
+    private final BandwidthShaper shaper; // null : débit illimité
 
     public SubServer(int port) {
+        this(port, STORAGE_DIR);
+    }
+
+    public SubServer(int port, String storageDir) {
         this.port = port;
+        this.storageDir = storageDir;
+        BandwidthShaper shaper = new BandwidthShaper(BANDWIDTH_LIMIT, 0, COMMAND_BANDWIDTH_LIMITS, BANDWIDTH_WEIGHTS);
+        this.shaper = shaper.enabled() ? shaper : null;
     }
 
     public void start() {
-        // Lire le fichier de configuration
-        loadConfig();
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("Sous-serveur en attente de connexions sur le port " + port);
+        new File(storageDir).mkdirs();
+        // Les connexions acceptées par un ServerSocketChannel disposent d'un SocketChannel,
+        // nécessaire pour les transferts sans copie (transferTo / transferFrom)
+        try {
+            chunkStore = new ChunkStore(new File(storageDir), STORAGE_COMPRESSION);
+        } catch (IOException e) {
+            System.err.println("Erreur lors de l'ouverture du stockage par morceaux : " + e.getMessage());
+            return;
+        }
+        ConnectionExecutor connectionExecutor = new ConnectionExecutor("Sous-serveur", port, EXECUTOR_MODE, MAX_IN_FLIGHT, MAX_QUEUED);
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            Log.info("Sous-serveur en attente de connexions sur le port " + port);
 
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Connexion reçue : " + clientSocket.getInetAddress());
+                Socket clientSocket = serverChannel.accept().socket();
+                Log.info("Connexion reçue : " + clientSocket.getInetAddress());
 
-                // Lancer un thread pour gérer la connexion
-                new Thread(() -> handleClient(clientSocket)).start();
+                // Confier la connexion au pool (refusée si surcharge)
+                connectionExecutor.submit(clientSocket, this::handleClient);
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private static void loadConfig() {
-        try (BufferedReader reader = new BufferedReader(new FileReader("config.txt"))) {
+    static void loadConfig(String configFile) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 if (line.startsWith("SUB_SERVER_PORT")) {
-                    port = Integer.parseInt(line.split("=")[1].trim());
+                    SUB_SERVER_PORT = Integer.parseInt(line.split("=")[1].trim());
                 } else if (line.startsWith("STORAGE_DIR")) {
                     STORAGE_DIR = line.split("=")[1].trim();
                     // Créer le répertoire s'il n'existe pas
                     new File(STORAGE_DIR).mkdirs();
+                } else if (line.startsWith("ACCEPT_BACKLOG")) {
+                    ACCEPT_BACKLOG = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("EXECUTOR_MODE")) {
+                    EXECUTOR_MODE = line.split("=")[1].trim();
+                } else if (line.startsWith("MAX_IN_FLIGHT")) {
+                    MAX_IN_FLIGHT = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("MAX_QUEUED")) {
+                    MAX_QUEUED = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("COMPRESSION")) {
+                    COMPRESSION = line.split("=")[1].trim();
+                } else if (line.startsWith("STORAGE_COMPRESSION")) {
+                    STORAGE_COMPRESSION = line.split("=")[1].trim();
+                } else if (line.startsWith("SUB_SERVER_METRICS_PORT")) {
+                    METRICS_PORT = Integer.parseInt(line.split("=")[1].trim());
+                } else if (line.startsWith("BUFFER_POOL_SIZE")) {
+                    BUFFER_POOL_SIZE = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("BUFFER_POOL_BUDGET")) {
+                    BUFFER_POOL_BUDGET = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("METRICS_SNAPSHOT_INTERVAL")) {
+                    METRICS_SNAPSHOT_INTERVAL = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("SUB_SERVER_BANDWIDTH_LIMIT")) {
+                    BANDWIDTH_LIMIT = Long.parseLong(line.split("=")[1].trim());
+                } else if (line.startsWith("COMMAND_BANDWIDTH_LIMITS")) {
+                    COMMAND_BANDWIDTH_LIMITS = line.split("=")[1].trim();
+                } else if (line.startsWith("BANDWIDTH_WEIGHTS")) {
+                    BANDWIDTH_WEIGHTS = line.split("=")[1].trim();
                 }
             }
         } catch (IOException e) {
@@ -44,42 +119,143 @@ public class SubServer {
         }
     }
 
-    private static void retrieveFilePart(Socket clientSocket) throws IOException {
-        DataInputStream dis = new DataInputStream(clientSocket.getInputStream());
+    // RETRIEVE : envoyer la plage [offset, offset + length) de la partie (length < 0 : jusqu'à la fin),
+    // précédée de la longueur effectivement envoyée et des sommes de contrôle de ses blocs ;
+    // retourne le nombre d'octets de données envoyés par le canal
+    private long retrieveFilePart(WritableByteChannel channel, BandwidthShaper.Flow flow, DataInputStream dis, DataOutputStream dos,
+                                  int requestId) throws IOException {
         String fileName = dis.readUTF();
+        long offset = dis.readLong();
+        long length = dis.readLong();
 
         // Vérifier si le fichier existe dans le répertoire de stockage
-        File file = new File(STORAGE_DIR + "/" + fileName);
+        File file = new File(storageDir + "/" + fileName);
+        List<ChunkStore.ChunkRef> chunks;
         if (file.exists()) {
-            try (FileInputStream fis = new FileInputStream(file);
-                 DataOutputStream dos = new DataOutputStream(clientSocket.getOutputStream())) {
-                dos.writeLong(file.length());
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    dos.write(buffer, 0, bytesRead);
+            try (FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+                long count = rangeLength(fileChannel.size(), offset, length);
+                dos.writeInt(requestId);
+                dos.writeLong(count);
+                sendChecksums(fileName, offset, count, dos);
+                // Envoi sans copie : le noyau transfère directement le fichier vers la socket
+                BandwidthShaper.transferTo(fileChannel, offset, count, channel, flow);
+                Log.info("Partie de fichier envoyée : " + file.getAbsolutePath());
+                return count;
+            }
+        } else if ((chunks = chunkStore.read(fileName)) != null) {
+            // Partie stockée par morceaux : envoyer, dans l'ordre du manifeste, ceux qui recouvrent la plage
+            long fileSize = 0;
+            for (ChunkStore.ChunkRef chunk : chunks) {
+                fileSize += chunk.length;
+            }
+            long count = rangeLength(fileSize, offset, length);
+            dos.writeInt(requestId);
+            dos.writeLong(count);
+            sendChecksums(fileName, offset, count, dos);
+            long chunkStart = 0;
+            for (ChunkStore.ChunkRef chunk : chunks) {
+                long from = Math.max(offset, chunkStart);
+                long to = Math.min(offset + count, chunkStart + chunk.length);
+                if (from < to) {
+                    chunkStore.transferTo(chunk, from - chunkStart, to - chunkStart, channel, flow);
                 }
-                System.out.println("Partie de fichier envoyée : " + file.getAbsolutePath());
+                chunkStart += chunk.length;
             }
+            Log.info("Partie de fichier envoyée (" + chunks.size() + " morceaux) : " + fileName);
+            return count;
         } else {
-            System.out.println("Partie de fichier non trouvée : " + file.getAbsolutePath());
+            Log.info("Partie de fichier non trouvée : " + file.getAbsolutePath());
+            dos.writeInt(requestId);
+            dos.writeLong(-1);
+            return 0;
         }
     }
 
-    private static void handleDeleteCommand(Socket clientSocket, DataInputStream dis) throws IOException {
+    private void handleDeleteCommand(DataInputStream dis, DataOutputStream dos, int requestId) throws IOException {
         String fileName = dis.readUTF();
+        boolean deleted = false;
 
         // Vérifier si le fichier existe dans le répertoire de stockage
-        File file = new File(STORAGE_DIR + "/" + fileName);
+        File file = new File(storageDir + "/" + fileName);
         if (file.exists()) {
             if (file.delete()) {
-                System.out.println("Fichier supprimé : " + file.getAbsolutePath());
+                Log.info("Fichier supprimé : " + file.getAbsolutePath());
+                deleted = true;
             } else {
-                System.out.println("Erreur lors de la suppression du fichier : " + file.getAbsolutePath());
+                Log.info("Erreur lors de la suppression du fichier : " + file.getAbsolutePath());
             }
+        } else if (chunkStore.delete(fileName)) {
+            Log.info("Partie par morceaux supprimée : " + fileName);
+            deleted = true;
         } else {
-            System.out.println("Le fichier " + file.getAbsolutePath() + " n'existe pas.");
+            Log.info("Le fichier " + file.getAbsolutePath() + " n'existe pas.");
+        }
+        checksumFile(fileName).delete();
+        dos.writeInt(requestId);
+        dos.writeBoolean(deleted);
+    }
+
+    // HAS : indiquer, parmi les empreintes reçues, celles des morceaux absents
+    private void handleHasCommand(DataInputStream dis, DataOutputStream dos, int requestId) throws IOException {
+        int count = dis.readInt();
+        List<Integer> missing = new ArrayList<>();
+        byte[] hash = new byte[ContentChunker.HASH_LENGTH];
+        for (int i = 0; i < count; i++) {
+            dis.readFully(hash);
+            if (!chunkStore.contains(hash)) {
+                missing.add(i);
+            }
+        }
+        dos.writeInt(requestId);
+        dos.writeInt(missing.size());
+        for (int index : missing) {
+            dos.writeInt(index);
+        }
+    }
+
+    // PUTCHUNK : enregistrer un morceau sous son empreinte
+    private void handlePutChunkCommand(DataInputStream dis, DataOutputStream dos, int requestId) throws IOException {
+        byte[] hash = new byte[ContentChunker.HASH_LENGTH];
+        dis.readFully(hash);
+        int length = dis.readInt();
+        if (length < 0 || length > ChunkStore.MAX_CHUNK_SIZE) {
+            throw new IOException("Taille de morceau invalide : " + length);
+        }
+        byte[] data = BufferPool.acquire(length);
+        boolean stored;
+        try {
+            dis.readFully(data, 0, length);
+            stored = chunkStore.put(hash, data, length);
+        } finally {
+            BufferPool.release(data);
+        }
+        dos.writeInt(requestId);
+        dos.writeBoolean(stored);
+    }
+
+    // COMMIT : enregistrer le manifeste d'une partie dont tous les morceaux sont présents
+    private void handleCommitCommand(DataInputStream dis, DataOutputStream dos, int requestId) throws IOException {
+        String fileName = dis.readUTF();
+        int count = dis.readInt();
+        List<ChunkStore.ChunkRef> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[ContentChunker.HASH_LENGTH];
+            dis.readFully(hash);
+            chunks.add(new ChunkStore.ChunkRef(hash, dis.readInt()));
         }
+        long partLength = 0;
+        for (ChunkStore.ChunkRef chunk : chunks) {
+            partLength += chunk.length;
+        }
+        storeChecksums(fileName, 0, partLength, dis);
+        boolean stored = chunkStore.commit(fileName, chunks);
+        if (stored) {
+            // Remplacer une éventuelle version complète de la partie
+            new File(storageDir + "/" + fileName).delete();
+            Log.info("Partie de fichier stockée par morceaux : " + fileName + " (" + count + " morceaux)");
+        }
+        dos.writeInt(requestId);
+        dos.writeBoolean(stored);
     }
 
     private void handleDeleteFile(DataInputStream dataInputStream, DataOutputStream dataOutputStream) throws IOException {
@@ -88,16 +264,15 @@ public class SubServer {
         boolean atLeastOneFound = false; // Indique si au moins un fichier a été trouvé
 
         // Lister les fichiers dans le répertoire de stockage
-        File storageDir = new File(STORAGE_DIR);
-        File[] files = storageDir.listFiles();
+        File[] files = new File(storageDir).listFiles();
         if (files != null) {
             for (File file : files) {
                 // Vérifie si le fichier correspond au nom de base
                 if (file.getName().startsWith(baseName)) {
                     atLeastOneFound = true; // Au moins un fichier trouvé
-                    System.out.println("Suppression du fichier : " + file.getAbsolutePath());
+                    Log.info("Suppression du fichier : " + file.getAbsolutePath());
                     if (!file.delete()) {
-                        System.out.println("Erreur lors de la suppression du fichier : " + file.getAbsolutePath());
+                        Log.info("Erreur lors de la suppression du fichier : " + file.getAbsolutePath());
                         allDeleted = false; // Échec si un fichier ne peut pas être supprimé
                     }
                 }
@@ -107,38 +282,108 @@ public class SubServer {
         // Envoyer la réponse au serveur principal
         if (atLeastOneFound) {
             if (allDeleted) {
-                System.out.println("Tous les fichiers liés à " + baseName + " ont été supprimés avec succès.");
+                Log.info("Tous les fichiers liés à " + baseName + " ont été supprimés avec succès.");
                 dataOutputStream.writeUTF("Fichiers supprimés avec succès.");
             } else {
-                System.out.println("Certaines parties de " + baseName + " n'ont pas pu être supprimées.");
+                Log.info("Certaines parties de " + baseName + " n'ont pas pu être supprimées.");
                 dataOutputStream.writeUTF("Échec de la suppression de certains fichiers.");
             }
         } else {
-            System.out.println("Aucun fichier trouvé correspondant au nom de base : " + baseName);
+            Log.info("Aucun fichier trouvé correspondant au nom de base : " + baseName);
             dataOutputStream.writeUTF("Aucun fichier trouvé.");
         }
     }
 
-    private static void handleClient(Socket clientSocket) {
-        try (DataInputStream dis = new DataInputStream(clientSocket.getInputStream())) {
-            String command = dis.readUTF();
-
-            switch (command) {
-                case "STORE":
-                    storeFilePart(clientSocket);
-                    break;
-                case "RETRIEVE":
-                    retrieveFilePart(clientSocket);
-                    break;
-                case "DELETE":
-                    handleDeleteCommand(clientSocket, dis);
-                    break;
-                default:
-                    System.out.println("Commande non reconnue : " + command);
-                    break;
+    private void handleClient(Socket clientSocket) {
+        // Octets comptés sur la socket ; ceux des transferts sans copie, qui contournent
+        // les flux, sont retournés par STORE et RETRIEVE.
+        // Avec une limite de débit, les flux sont limités et les transferts sans copie prélèvent
+        // leurs tranches sur le même débit (channelFlow), sauf une fois un codec négocié : ils
+        // passent alors par les flux compressés, déjà limités.
+        BandwidthShaper.Flow flow = shaper != null ? shaper.flow(clientSocket.getInetAddress().getHostAddress()) : null;
+        try (Metrics.CountingInputStream received = new Metrics.CountingInputStream(flow == null ? clientSocket.getInputStream()
+                     : new BandwidthShaper.ShapedInputStream(clientSocket.getInputStream(), flow));
+             Metrics.CountingOutputStream sent = new Metrics.CountingOutputStream(flow == null ? clientSocket.getOutputStream()
+                     : new BandwidthShaper.ShapedOutputStream(clientSocket.getOutputStream(), flow));
+             DataInputStream socketInput = new DataInputStream(received);
+             DataOutputStream socketOutput = new DataOutputStream(sent)) {
+            clientSocket.setSoTimeout(IDLE_TIMEOUT);
+            DataInputStream dis = socketInput;
+            DataOutputStream dos = socketOutput;
+            // Canal des transferts sans copie ; passe par les flux compressés si un codec est négocié
+            ByteChannel socketChannel = clientSocket.getChannel();
+            ByteChannel channel = socketChannel;
+            BandwidthShaper.Flow channelFlow = flow;
+
+            // Le serveur principal garde ses connexions ouvertes : plusieurs requêtes,
+            // chacune identifiée par un numéro repris dans la réponse, se succèdent
+            while (true) {
+                String command;
+                try {
+                    command = dis.readUTF();
+                } catch (EOFException | SocketTimeoutException e) {
+                    break; // Connexion fermée par le serveur principal ou inactive
+                }
+                int requestId = dis.readInt();
+                if (flow != null) {
+                    flow.start(command);
+                }
+                long start = System.nanoTime();
+                long receivedBefore = received.count();
+                long sentBefore = sent.count();
+                long channelReceived = 0;
+                long channelSent = 0;
+
+                switch (command) {
+                    case "CODEC":
+                        String codec = Codec.negotiate(dis.readUTF(), COMPRESSION);
+                        dos.writeInt(requestId);
+                        dos.writeUTF(codec);
+                        dos.flush();
+                        if (!codec.equals(Codec.NONE)) {
+                            dis = new DataInputStream(new CodecInputStream(socketInput));
+                            dos = new DataOutputStream(new CodecOutputStream(socketOutput, Codec.forName(codec)));
+                            channel = Codec.channel(dis, dos);
+                            channelFlow = null;
+                            Log.info("Compression " + codec + " pour " + clientSocket.getInetAddress());
+                        }
+                        break;
+                    case "STORE":
+                        channelReceived = storeFilePart(channel, channelFlow, dis, dos, requestId);
+                        break;
+                    case "RETRIEVE":
+                        channelSent = retrieveFilePart(channel, channelFlow, dis, dos, requestId);
+                        break;
+                    case "DELETE":
+                        handleDeleteCommand(dis, dos, requestId);
+                        break;
+                    case "HAS":
+                        handleHasCommand(dis, dos, requestId);
+                        break;
+                    case "PUTCHUNK":
+                        handlePutChunkCommand(dis, dos, requestId);
+                        break;
+                    case "COMMIT":
+                        handleCommitCommand(dis, dos, requestId);
+                        break;
+                    default:
+                        Log.info("Commande non reconnue : " + command);
+                        return;
+                }
+                dos.flush();
+                if (channel != socketChannel) {
+                    channelReceived = channelSent = 0; // Déjà comptés par les flux compressés
+                }
+                Metrics.recordCommand(command, System.nanoTime() - start,
+                        received.count() - receivedBefore + channelReceived, sent.count() - sentBefore + channelSent);
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            if (closedByPeer(e)) {
+                // Requête abandonnée par le serveur principal (requête de secours, client parti)
+                Log.info("Connexion fermée par " + clientSocket.getRemoteSocketAddress() + " : " + e.getMessage());
+            } else {
+                e.printStackTrace();
+            }
         } finally {
             try {
                 clientSocket.close();
@@ -148,31 +393,128 @@ public class SubServer {
         }
     }
 
-    private static void storeFilePart(Socket clientSocket) throws IOException {
-        DataInputStream dis = new DataInputStream(clientSocket.getInputStream());
+    // Vrai si l'erreur vient de la fermeture de la connexion par l'autre extrémité ; les
+    // transferts sans copie la signalent par une IOException simple plutôt qu'une SocketException
+    private static boolean closedByPeer(IOException e) {
+        String message = e.getMessage();
+        return e instanceof SocketException
+                || (message != null && (message.contains("Broken pipe") || message.contains("Connection reset")));
+    }
+
+    // STORE : écrire length octets à partir de offset dans une partie de partLength octets,
+    // suivis des sommes de contrôle de leurs blocs.
+    // Une partie est écrite par plages, éventuellement reçues en parallèle et dans le désordre ;
+    // une plage interrompue est réécrite à l'identique lors de la reprise de l'envoi. La partie
+    // est d'abord mise à sa taille finale (les plages suivantes peuvent arriver en premier,
+    // le reste d'une ancienne version plus longue est supprimé) ; retourne le nombre d'octets
+    // de données reçus par le canal
+    private long storeFilePart(ReadableByteChannel channel, BandwidthShaper.Flow flow, DataInputStream dis, DataOutputStream dos,
+                               int requestId) throws IOException {
         String fileName = dis.readUTF();
+        long offset = dis.readLong();
         long fileSize = dis.readLong();
+        long partLength = dis.readLong();
+        long received = fileSize;
 
         // Créer le fichier dans le répertoire de stockage
-        File file = new File(STORAGE_DIR + "/" + fileName);
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            byte[] buffer = new byte[1024 * 1024]; // Buffer de 1 Mo
-            int bytesRead;
-            while (fileSize > 0 && (bytesRead = dis.read(buffer, 0, (int) Math.min(buffer.length, fileSize))) != -1) {
-                fos.write(buffer, 0, bytesRead);
-                fileSize -= bytesRead;
+        File file = new File(storageDir + "/" + fileName);
+        try (RandomAccessFile partFile = new RandomAccessFile(file, "rw");
+             FileChannel fileChannel = partFile.getChannel()) {
+            if (partFile.length() != partLength) {
+                partFile.setLength(partLength);
             }
+            // Réception sans copie : les octets passent de la socket au fichier sans transiter par le tas
+            fileSize -= BandwidthShaper.transferFrom(channel, fileChannel, offset, fileSize, flow);
+        }
+
+        if (fileSize > 0) {
+            // Plage incomplète : la connexion est perdue, le serveur principal la renverra
+            // ou supprimera la partie
+            throw new EOFException("Partie de fichier incomplète : " + file.getAbsolutePath());
+        }
+        storeChecksums(fileName, offset, partLength, dis);
+        if (offset == 0) {
+            // Remplacer une éventuelle version de la partie stockée par morceaux
+            chunkStore.delete(fileName);
+        }
+        Log.info("Partie de fichier reçue et stockée : " + file.getAbsolutePath());
+        // Acquitter le serveur principal
+        dos.writeInt(requestId);
+        dos.writeBoolean(true);
+        return received;
+    }
+
+    // Lire les sommes de contrôle des blocs d'une plage commençant à offset ([taille des blocs]
+    // [nombre][CRC32C...]) et les écrire à leur place dans le fichier annexe de la partie
+    private void storeChecksums(String fileName, long offset, long partLength, DataInputStream dis) throws IOException {
+        int blockSize = dis.readInt();
+        int count = dis.readInt();
+        long maxCount = blockSize > 0 ? (partLength - offset + blockSize - 1) / blockSize : 0;
+        if (blockSize < 0 || count < 0 || count > maxCount || (blockSize > 0 && offset % blockSize != 0)) {
+            throw new IOException("Sommes de contrôle invalides pour " + fileName);
         }
-        System.out.println("Partie de fichier reçue et stockée : " + file.getAbsolutePath());
+        byte[] checksums = new byte[count * 4];
+        dis.readFully(checksums);
+        if (blockSize == 0) {
+            return;
+        }
+        try (RandomAccessFile checksumFile = new RandomAccessFile(checksumFile(fileName), "rw")) {
+            long length = 4 + (partLength + blockSize - 1) / blockSize * 4;
+            if (checksumFile.length() != length) {
+                checksumFile.setLength(length);
+            }
+            checksumFile.writeInt(blockSize);
+            checksumFile.seek(4 + offset / blockSize * 4);
+            checksumFile.write(checksums);
+        }
+    }
+
+    // Envoyer les sommes de contrôle des blocs de la plage [offset, offset + count) : taille des
+    // blocs (0 si la partie n'en a pas ou si la plage ne commence pas au début d'un bloc),
+    // nombre de sommes, puis une somme par bloc. Seul le petit fichier annexe est lu : les
+    // données elles-mêmes sont vérifiées par le serveur principal au fil de leur réception.
+    private void sendChecksums(String fileName, long offset, long count, DataOutputStream dos) throws IOException {
+        File file = checksumFile(fileName);
+        if (file.exists()) {
+            try (RandomAccessFile checksumFile = new RandomAccessFile(file, "r")) {
+                int blockSize = checksumFile.length() >= 4 ? checksumFile.readInt() : 0;
+                if (blockSize > 0 && offset % blockSize == 0) {
+                    long first = offset / blockSize;
+                    long available = Math.max(0, (checksumFile.length() - 4) / 4 - first);
+                    byte[] checksums = new byte[(int) Math.min(available, (count + blockSize - 1) / blockSize) * 4];
+                    checksumFile.seek(4 + first * 4);
+                    checksumFile.readFully(checksums);
+                    dos.writeInt(blockSize);
+                    dos.writeInt(checksums.length / 4);
+                    dos.write(checksums);
+                    return;
+                }
+            }
+        }
+        dos.writeInt(0);
+        dos.writeInt(0);
+    }
+
+    private File checksumFile(String fileName) {
+        return new File(storageDir + "/" + fileName + CHECKSUM_SUFFIX);
+    }
+
+    // Longueur de la plage demandée effectivement présente dans une partie de size octets
+    private static long rangeLength(long size, long offset, long length) {
+        long available = Math.max(0, size - offset);
+        return length < 0 ? available : Math.min(length, available);
     }
 
     // Méthode principale pour démarrer le sous-serveur
+    // Usage : java SubServer [fichier_de_configuration]   (défaut : config.txt)
     public static void main(String[] args) {
         // Charger la configuration
-        loadConfig();
+        loadConfig(args.length > 0 ? args[0] : "config.txt");
+        BufferPool.configure(BUFFER_POOL_SIZE, BUFFER_POOL_BUDGET);
+        Metrics.start(METRICS_PORT, METRICS_SNAPSHOT_INTERVAL);
 
         // Démarrer le sous-serveur
-        SubServer subServer = new SubServer(port);
+        SubServer subServer = new SubServer(SUB_SERVER_PORT);
         subServer.start();
     }
 }
\ No newline at end of file
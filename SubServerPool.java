@@ -0,0 +1,221 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Connexions persistantes du serveur principal vers les sous-serveurs.
+// Chaque requête porte un numéro que le sous-serveur reprend en tête de sa réponse,
+// ce qui permet de détecter une connexion désynchronisée avant de la réutiliser.
+// Plusieurs opérations concurrentes vers un même sous-serveur utilisent chacune
+// leur propre connexion, reprise dans le pool une fois la réponse entièrement lue.
+// À son ouverture, chaque connexion propose au sous-serveur les codecs de compression
+// configurés (commande CODEC) ; le codec retenu compresse ensuite tous ses échanges.
+// Le délai entre l'envoi de chaque requête et l'en-tête de sa réponse est mesuré par
+// sous-serveur et par commande (subserver_latency_seconds) : pour STORE il comprend le
+// relais des données, pour RETRIEVE il s'arrête avant leur lecture.
+// Ce délai sert aussi à choisir entre les réplicas d'une partie : une moyenne mobile par
+// sous-serveur classe les réplicas du plus rapide au plus lent (un sous-serveur en erreur
+// depuis moins de FAILURE_MEMORY ms passe en dernier), et le centile hedgePercentile des
+// délais d'un sous-serveur fixe quand doubler une requête qui tarde (hedgeDelayNanos).
+// Une connexion dont aucun octet n'arrive pendant readTimeoutMillis (ouverture comprise)
+// échoue avec SocketTimeoutException : un sous-serveur bloqué ne retient pas la requête.
+class SubServerPool {
+    private static final AtomicInteger NEXT_REQUEST_ID = new AtomicInteger();
+    private static final long FAILURE_MEMORY = 30000;
+
+    private final int maxIdlePerNode;
+    private final long idleTimeoutMillis;
+    private final int readTimeoutMillis; // 0 : pas de délai
+    private final String compression; // Codecs proposés, par ordre de préférence
+    private final double hedgePercentile; // 0 : jamais de requête de secours
+    private final long hedgeMinDelayNanos;
+    private final Map<String, Deque<Connection>> idle = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> responseTimes = new ConcurrentHashMap<>(); // Moyenne mobile (ns)
+    private final Map<String, Long> failures = new ConcurrentHashMap<>(); // Date de la dernière erreur (ms)
+
+    SubServerPool(int maxIdlePerNode, long idleTimeoutMillis, int readTimeoutMillis, String compression,
+                  double hedgePercentile, long hedgeMinDelayMillis) {
+        this.maxIdlePerNode = maxIdlePerNode;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.compression = compression;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMillis);
+    }
+
+    // Connexion inactive vers ce sous-serveur, ou nouvelle connexion
+    Connection acquire(String subServerAddress) throws IOException {
+        Deque<Connection> connections = idle.computeIfAbsent(subServerAddress, address -> new ConcurrentLinkedDeque<>());
+        Connection connection;
+        while ((connection = connections.pollFirst()) != null) {
+            if (System.currentTimeMillis() - connection.lastUsed < idleTimeoutMillis) {
+                return connection;
+            }
+            connection.close(); // Probablement fermée par le sous-serveur entre-temps
+        }
+        return new Connection(this, subServerAddress, compression);
+    }
+
+    // Remettre dans le pool une connexion dont la réponse a été entièrement lue
+    void release(Connection connection) {
+        Deque<Connection> connections = idle.get(connection.address);
+        connection.lastUsed = System.currentTimeMillis();
+        if (connections.size() < maxIdlePerNode) {
+            connections.offerFirst(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    // Abandonner une connexion en erreur ainsi que les connexions inactives vers le même
+    // sous-serveur, qui ont de bonnes chances d'être elles aussi inutilisables
+    void discard(Connection connection) {
+        connection.close();
+        Deque<Connection> connections = idle.get(connection.address);
+        Connection stale;
+        while ((stale = connections.pollFirst()) != null) {
+            stale.close();
+        }
+    }
+
+    // Réplicas du plus rapide au plus lent ; un sous-serveur encore jamais interrogé est
+    // essayé en premier pour obtenir une mesure, l'ordre donné départage les ex aequo
+    String[] byResponseTime(String[] replicas) {
+        long now = System.currentTimeMillis();
+        String[] ranked = replicas.clone();
+        Arrays.sort(ranked, Comparator.comparing((String node) -> now - failures.getOrDefault(node, 0L) < FAILURE_MEMORY)
+                .thenComparingLong(node -> {
+                    AtomicLong responseTime = responseTimes.get(node);
+                    return responseTime == null ? 0 : responseTime.get();
+                }));
+        return ranked;
+    }
+
+    // Délai de réponse à RETRIEVE observé pour ce sous-serveur (ou minoré, pour une requête abandonnée)
+    void observe(String node, long nanos) {
+        AtomicLong responseTime = responseTimes.computeIfAbsent(node, key -> new AtomicLong(nanos));
+        responseTime.accumulateAndGet(nanos, (average, sample) -> average + (sample - average) / 8);
+    }
+
+    // Erreur d'un sous-serveur : il n'est plus préféré pendant FAILURE_MEMORY ms
+    void failed(String node) {
+        failures.put(node, System.currentTimeMillis());
+    }
+
+    // Délai après lequel doubler une requête RETRIEVE restée sans réponse de ce sous-serveur
+    // (0 : jamais) : le centile hedgePercentile de ses délais de réponse, au moins hedgeMinDelay
+    long hedgeDelayNanos(String node) {
+        if (hedgePercentile <= 0) {
+            return 0;
+        }
+        long micros = Metrics.histogram("subserver_latency_seconds", "node", node, "command", "RETRIEVE")
+                .percentile(hedgePercentile / 100);
+        return Math.max(hedgeMinDelayNanos, TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+
+    static final class Connection implements Closeable {
+        final String address;
+        private final SubServerPool pool;
+        final DataInputStream in;
+        final DataOutputStream out;
+        private final Socket socket;
+        private long lastUsed;
+        private boolean used;
+        private final Deque<Pending> pending = new ArrayDeque<>(); // Requêtes sans réponse, dans l'ordre
+
+        private Connection(SubServerPool pool, String address, String compression) throws IOException {
+            String[] subServerInfo = address.split(":");
+            this.pool = pool;
+            this.address = address;
+            this.socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(subServerInfo[0], Integer.parseInt(subServerInfo[1])), pool.readTimeoutMillis);
+                socket.setSoTimeout(pool.readTimeoutMillis);
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            String codec = Codec.NONE;
+            if (!compression.equals(Codec.NONE)) {
+                try {
+                    int requestId = NEXT_REQUEST_ID.incrementAndGet();
+                    out.writeUTF("CODEC");
+                    out.writeInt(requestId);
+                    out.writeUTF(compression);
+                    out.flush();
+                    if (in.readInt() != requestId) {
+                        throw new IOException("Réponse inattendue de " + address + " à la négociation de la compression");
+                    }
+                    codec = in.readUTF();
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+            }
+            if (codec.equals(Codec.NONE)) {
+                this.in = in;
+                this.out = out;
+            } else {
+                this.in = new DataInputStream(new CodecInputStream(in));
+                this.out = new DataOutputStream(new CodecOutputStream(socket.getOutputStream(), Codec.forName(codec)));
+            }
+        }
+
+        // Vrai si la connexion a déjà servi : une erreur peut alors venir d'une fermeture
+        // par le sous-serveur pendant l'inactivité et la requête peut être rejouée
+        boolean wasReused() {
+            return used;
+        }
+
+        // Envoyer la commande et son numéro de requête ; les arguments suivent sur out
+        int begin(String command) throws IOException {
+            int requestId = NEXT_REQUEST_ID.incrementAndGet();
+            used = lastUsed != 0;
+            out.writeUTF(command);
+            out.writeInt(requestId);
+            pending.add(new Pending(requestId, command, System.nanoTime()));
+            return requestId;
+        }
+
+        // Lire l'en-tête de la réponse et vérifier qu'elle correspond à la requête
+        void expect(int requestId) throws IOException {
+            int responseId = in.readInt();
+            Pending request = pending.poll();
+            if (request != null && request.requestId == responseId) {
+                long nanos = System.nanoTime() - request.start;
+                Metrics.histogram("subserver_latency_seconds", "node", address, "command", request.command).record(nanos);
+                if (request.command.equals("RETRIEVE")) {
+                    pool.observe(address, nanos);
+                }
+            }
+            if (responseId != requestId) {
+                throw new IOException("Réponse " + responseId + " reçue de " + address + " pour la requête " + requestId);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Connexion déjà fermée
+            }
+        }
+    }
+
+    private static final class Pending {
+        final int requestId;
+        final String command;
+        final long start;
+
+        Pending(int requestId, String command, long start) {
+            this.requestId = requestId;
+            this.command = command;
+            this.start = start;
+        }
+    }
+}
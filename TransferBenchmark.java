@@ -0,0 +1,107 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+// Micro-benchmark : envoi d'un fichier sur une socket locale, par copie dans un
+// tampon de 4 Ko (ancienne boucle) ou sans copie avec FileChannel.transferTo.
+// Usage : java TransferBenchmark [taille_en_Mo ...]   (défaut : 1 100 5120)
+public class TransferBenchmark {
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        List<Long> sizes = new ArrayList<>();
+        for (String arg : args) {
+            sizes.add(Long.parseLong(arg) * 1024 * 1024);
+        }
+        if (sizes.isEmpty()) {
+            sizes = Arrays.asList(1L << 20, 100L << 20, 5L << 30);
+        }
+
+        try (ServerSocketChannel sink = ServerSocketChannel.open()) {
+            sink.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread drain = new Thread(() -> drain(sink));
+            drain.setDaemon(true);
+            drain.start();
+
+            for (long size : sizes) {
+                File file = createFile(size);
+                try {
+                    System.out.printf("Taille %,d octets%n", size);
+                    report("  copie 4 Ko ", size, () -> sendWithBuffer(file, sink.getLocalAddress()));
+                    report("  transferTo ", size, () -> sendWithTransferTo(file, sink.getLocalAddress()));
+                } finally {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private interface Transfer {
+        void run() throws IOException;
+    }
+
+    private static void report(String label, long size, Transfer transfer) throws IOException {
+        transfer.run(); // Échauffement
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            transfer.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double seconds = best / 1e9;
+        System.out.printf("%s %10.3f ms  %10.1f Mo/s%n", label, best / 1e6, size / seconds / (1024 * 1024));
+    }
+
+    private static void sendWithBuffer(File file, SocketAddress address) throws IOException {
+        try (Socket socket = new Socket();
+             FileInputStream fis = new FileInputStream(file)) {
+            socket.connect(address);
+            OutputStream out = socket.getOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+        }
+    }
+
+    private static void sendWithTransferTo(File file, SocketAddress address) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(address);
+             FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+            long size = fileChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += fileChannel.transferTo(position, size - position, channel);
+            }
+        }
+    }
+
+    // Fichier de test rempli de données aléatoires (1 Mo répété)
+    private static File createFile(long size) throws IOException {
+        File file = File.createTempFile("bench", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                fos.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    // Consommer et jeter tout ce qui arrive sur la socket de test
+    private static void drain(ServerSocketChannel sink) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        while (true) {
+            try (SocketChannel channel = sink.accept()) {
+                while (channel.read(buffer) != -1) {
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+}
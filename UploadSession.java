@@ -0,0 +1,50 @@
+import java.util.*;
+
+// Envoi en cours d'un fichier, conservé par le serveur principal pour pouvoir être repris.
+// Le fichier est écrit par fenêtres de rangées entières, reçues sur une ou plusieurs
+// connexions : une fenêtre est validée lorsque tous les sous-serveurs l'ont acquittée, et
+// un envoi interrompu reprend à la fin de la suite ininterrompue de fenêtres validées.
+class UploadSession {
+    final String id;            // Choisi par le client, identique d'une tentative à l'autre
+    final FileCatalog.Entry entry; // Découpage et emplacement des parties (somme de contrôle non renseignée)
+    final long rowSize;         // Les segments envoyés en parallèle commencent sur une rangée
+    // Lus sans verrou par les connexions SEGMENT ; active n'est changé que sous le verrou de la session
+    volatile boolean active;    // Une connexion du client pilote l'envoi
+    volatile boolean failed;    // Un sous-serveur a refusé une partie
+    long lastActive;
+    private final NavigableMap<Long, long[]> windows = new TreeMap<>(); // Début -> {fin, CRC32C}
+
+    UploadSession(String id, FileCatalog.Entry entry) {
+        this.id = id;
+        this.entry = entry;
+        this.rowSize = (long) entry.dataShards * entry.cellSize;
+        this.lastActive = System.currentTimeMillis();
+    }
+
+    synchronized void commit(long start, long end, long checksum) {
+        windows.put(start, new long[] {end, checksum});
+        lastActive = System.currentTimeMillis();
+    }
+
+    // Octets validés sans interruption depuis le début du fichier
+    synchronized long committed() {
+        long position = 0;
+        long[] window;
+        while (position < entry.size && (window = windows.get(position)) != null) {
+            position = window[0];
+        }
+        return position;
+    }
+
+    // CRC32C des octets validés depuis le début du fichier
+    synchronized long checksum() {
+        long position = 0;
+        long checksum = 0;
+        long[] window;
+        while (position < entry.size && (window = windows.get(position)) != null) {
+            checksum = Checksums.combine(checksum, window[1], window[0] - position);
+            position = window[0];
+        }
+        return checksum;
+    }
+}